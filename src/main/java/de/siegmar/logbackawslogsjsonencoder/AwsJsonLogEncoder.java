@@ -19,21 +19,34 @@
 
 package de.siegmar.logbackawslogsjsonencoder;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 
 import org.slf4j.Marker;
 import org.slf4j.event.KeyValuePair;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.IThrowableProxy;
 import ch.qos.logback.classic.spi.ThrowableProxyUtil;
 import ch.qos.logback.core.encoder.EncoderBase;
+import ch.qos.logback.core.util.Duration;
 
 /**
  * Logback encoder that produces JSON that is read by CloudWatch Logs Insights.
@@ -41,12 +54,31 @@ import ch.qos.logback.core.encoder.EncoderBase;
 public class AwsJsonLogEncoder extends EncoderBase<ILoggingEvent> {
 
     private static final int INITIAL_BUFFER_SIZE = 256;
+    private static final int DEFAULT_DUPLICATE_SUPPRESSION_MAX_KEYS = 1000;
+    private static final int FRAGMENT_CACHE_SIZE = 256;
+    private static final int MAX_MESSAGE_TEMPLATES = 4096;
+    private static final int MAX_MDC_KEY_STATISTICS = 1024;
+    private static final int DEFAULT_CUSTOM_MAPPER_MAX_BUDGET_VIOLATIONS = 10;
+    private static final byte[] EMPTY = new byte[0];
+    private static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+    private static final Set<String> FIELD_NAMES = Set.of("timestamp", "nanoseconds", "sequenceNumber", "level",
+        "thread", "logger", "message", "rawMessage", "markers", "mdc", "keyValues", "caller", "stacktrace",
+        "rootCause", "staticFields");
 
     private final Map<String, Object> staticFields = new LinkedHashMap<>();
-    private final List<BiConsumer<SimpleJsonEncoder, ILoggingEvent>> mappers = new ArrayList<>();
+    private final Map<String, Level> fieldMinLevels = new HashMap<>();
+    private final MessageTemplateCache messageTemplates = new MessageTemplateCache(MAX_MESSAGE_TEMPLATES);
+    private final IsoTimestampFormatter isoTimestampFormatter = new IsoTimestampFormatter();
     private final List<BiConsumer<SimpleJsonEncoder, ILoggingEvent>> customMappers = new ArrayList<>();
+    private final List<ValueSerializer<?>> valueSerializers = new ArrayList<>();
+    private final List<String> mdcIncludes = new ArrayList<>();
+    private final List<String> mdcExcludes = new ArrayList<>();
+    private final Map<String, String> mdcRenames = new LinkedHashMap<>();
+    private final Set<String> mdcTopLevelKeys = new LinkedHashSet<>();
+    private final ConcurrentMap<String, LongAdder> mdcKeyStatistics = new ConcurrentHashMap<>();
 
     private boolean includeTimestamp = true;
+    private TimestampFormat timestampFormat = TimestampFormat.EPOCH_MILLIS;
     private boolean includeNanoseconds;
     private boolean includeSequenceNumber;
     private boolean includeLevelName = true;
@@ -60,6 +92,35 @@ public class AwsJsonLogEncoder extends EncoderBase<ILoggingEvent> {
     private boolean includeMdc = true;
     private boolean includeKeyValues = true;
     private boolean includeCaller;
+    private Duration duplicateSuppressionWindow;
+    private int duplicateSuppressionMaxKeys = DEFAULT_DUPLICATE_SUPPRESSION_MAX_KEYS;
+    private PressureSignal pressureSignal;
+    private boolean callerStackWalker;
+    private boolean cacheMdc;
+    private boolean collectMdcKeyStatistics;
+    private boolean directMessageFormatting;
+    private boolean binarySpool;
+    private CustomMapperErrorPolicy customMapperErrorPolicy = CustomMapperErrorPolicy.PROPAGATE;
+    private int customMapperSampleInterval;
+    private Duration customMapperTimeBudget;
+    private int customMapperMaxBudgetViolations = DEFAULT_CUSTOM_MAPPER_MAX_BUDGET_VIOLATIONS;
+    private boolean shareEncodedEvents;
+
+    private DuplicateSuppressor duplicateSuppressor;
+    private StackWalkerCallerExtractor callerExtractor;
+    private IdentityFragmentCache<Map<String, String>> mdcCache;
+    private MdcRules mdcRules;
+    private IdentityFragmentCache<Marker> markerCache;
+    private ValueSerializers valueSerializerRegistry = ValueSerializers.DEFAULT;
+    private volatile SpoolDictionary spoolDictionary;
+    private List<CustomMapperGuard> customMapperGuards = List.of();
+    private SharedEncodingCache.Key sharedEncodingKey;
+
+    /**
+     * Mapper pipelines indexed by level index and degradation ordinal.
+     * A {@code null} pipeline means that events have to be dropped.
+     */
+    private List<BiConsumer<SimpleJsonEncoder, ILoggingEvent>>[][] pipelines;
 
     public Map<String, Object> getStaticFields() {
         return staticFields;
@@ -75,6 +136,37 @@ public class AwsJsonLogEncoder extends EncoderBase<ILoggingEvent> {
         }
     }
 
+    public Map<String, Level> getFieldMinLevels() {
+        return fieldMinLevels;
+    }
+
+    /**
+     * Restricts a field to events of at least the given level. The format is {@code field:level},
+     * e.g. {@code caller:WARN}. Supported fields are the ones that can be enabled via the
+     * {@code include*} properties: timestamp, nanoseconds, sequenceNumber, level, thread, logger,
+     * message, rawMessage, markers, mdc, keyValues, caller, stacktrace, rootCause and staticFields.
+     *
+     * @param fieldMinLevel the field and level in format {@code field:level}
+     */
+    @SuppressWarnings("PMD.AvoidLiteralsInIfCondition")
+    public void addFieldMinLevel(final String fieldMinLevel) {
+        final String[] split = fieldMinLevel.split(":", 2);
+        if (split.length != 2) {
+            addWarn("fieldMinLevel must be in format field:level - rejecting '" + fieldMinLevel + "'");
+            return;
+        }
+
+        final String field = split[0].trim();
+        final Level level = Level.toLevel(split[1].trim(), null);
+        if (!FIELD_NAMES.contains(field)) {
+            addWarn("fieldMinLevel field '" + field + "' is unknown - rejecting '" + fieldMinLevel + "'");
+        } else if (level == null) {
+            addWarn("fieldMinLevel level is invalid - rejecting '" + fieldMinLevel + "'");
+        } else {
+            fieldMinLevels.put(field, level);
+        }
+    }
+
     public List<BiConsumer<SimpleJsonEncoder, ILoggingEvent>> getCustomMappers() {
         return customMappers;
     }
@@ -83,6 +175,94 @@ public class AwsJsonLogEncoder extends EncoderBase<ILoggingEvent> {
         customMappers.add(customMapper);
     }
 
+    public CustomMapperErrorPolicy getCustomMapperErrorPolicy() {
+        return customMapperErrorPolicy;
+    }
+
+    /**
+     * Sets the policy for custom mappers that throw an exception. With {@link CustomMapperErrorPolicy#SKIP}
+     * or {@link CustomMapperErrorPolicy#DISABLE}, the output of the failed invocation is discarded, so the
+     * JSON stays valid. Defaults to {@link CustomMapperErrorPolicy#PROPAGATE}.
+     *
+     * @param customMapperErrorPolicy the error policy
+     */
+    public void setCustomMapperErrorPolicy(final CustomMapperErrorPolicy customMapperErrorPolicy) {
+        this.customMapperErrorPolicy =
+            Objects.requireNonNull(customMapperErrorPolicy, "customMapperErrorPolicy must not be null");
+    }
+
+    public int getCustomMapperSampleInterval() {
+        return customMapperSampleInterval;
+    }
+
+    /**
+     * Enables the measurement of the invocation time and output length of (on average) every n-th
+     * invocation of custom mappers. The statistics are reported on stop and available via
+     * {@link #getCustomMapperStatistics()}.
+     *
+     * @param customMapperSampleInterval the sample interval or 0 to disable sampling
+     */
+    public void setCustomMapperSampleInterval(final int customMapperSampleInterval) {
+        this.customMapperSampleInterval = customMapperSampleInterval;
+    }
+
+    public Duration getCustomMapperTimeBudget() {
+        return customMapperTimeBudget;
+    }
+
+    /**
+     * Sets the time budget per invocation of custom mappers. A mapper that exceeds its budget
+     * {@link #setCustomMapperMaxBudgetViolations(int) too often in a row} gets disabled. If set, every invocation
+     * is measured.
+     *
+     * @param customMapperTimeBudget the time budget or {@code null} to disable the budget
+     */
+    public void setCustomMapperTimeBudget(final Duration customMapperTimeBudget) {
+        this.customMapperTimeBudget = customMapperTimeBudget;
+    }
+
+    public int getCustomMapperMaxBudgetViolations() {
+        return customMapperMaxBudgetViolations;
+    }
+
+    /**
+     * Sets the number of consecutive time budget violations after which a custom mapper gets disabled -
+     * an invocation within the budget resets the count. Defaults to 10.
+     *
+     * @param customMapperMaxBudgetViolations the number of time budget violations
+     */
+    public void setCustomMapperMaxBudgetViolations(final int customMapperMaxBudgetViolations) {
+        this.customMapperMaxBudgetViolations = customMapperMaxBudgetViolations;
+    }
+
+    /**
+     * Returns the statistics of the custom mappers. Only available if sampling, a time budget or an error
+     * policy other than {@link CustomMapperErrorPolicy#PROPAGATE} is configured.
+     *
+     * @return the statistics of the custom mappers (in order of their registration)
+     */
+    public List<CustomMapperStatistics> getCustomMapperStatistics() {
+        final List<CustomMapperStatistics> statistics = new ArrayList<>(customMapperGuards.size());
+        for (final CustomMapperGuard guard : customMapperGuards) {
+            statistics.add(guard.statistics());
+        }
+        return statistics;
+    }
+
+    public List<ValueSerializer<?>> getValueSerializers() {
+        return valueSerializers;
+    }
+
+    /**
+     * Adds a serializer for values of a specific type (e.g. values of key-value pairs).
+     * Serializers added first take precedence.
+     *
+     * @param valueSerializer the serializer to add
+     */
+    public void addValueSerializer(final ValueSerializer<?> valueSerializer) {
+        valueSerializers.add(valueSerializer);
+    }
+
     public boolean isIncludeTimestamp() {
         return includeTimestamp;
     }
@@ -91,6 +271,19 @@ public class AwsJsonLogEncoder extends EncoderBase<ILoggingEvent> {
         this.includeTimestamp = includeTimestamp;
     }
 
+    public TimestampFormat getTimestampFormat() {
+        return timestampFormat;
+    }
+
+    /**
+     * Sets the output format of the timestamp field. Defaults to {@link TimestampFormat#EPOCH_MILLIS}.
+     *
+     * @param timestampFormat the timestamp format
+     */
+    public void setTimestampFormat(final TimestampFormat timestampFormat) {
+        this.timestampFormat = Objects.requireNonNull(timestampFormat, "timestampFormat must not be null");
+    }
+
     public boolean isIncludeNanoseconds() {
         return includeNanoseconds;
     }
@@ -147,6 +340,61 @@ public class AwsJsonLogEncoder extends EncoderBase<ILoggingEvent> {
         this.includeRawMessage = includeRawMessage;
     }
 
+    public boolean isDirectMessageFormatting() {
+        return directMessageFormatting;
+    }
+
+    /**
+     * Enables formatting of parameterized messages directly into the JSON output instead of using
+     * {@link ILoggingEvent#getFormattedMessage()}. Each message template is parsed (and escaped) once.
+     * The output is identical to the one of {@code getFormattedMessage()}.
+     *
+     * @param directMessageFormatting {@code true} to format messages directly into the JSON output
+     */
+    public void setDirectMessageFormatting(final boolean directMessageFormatting) {
+        this.directMessageFormatting = directMessageFormatting;
+    }
+
+    public boolean isBinarySpool() {
+        return binarySpool;
+    }
+
+    /**
+     * Enables the binary spool mode. Instead of JSON lines, events are written as compact, length prefixed
+     * records (using a string dictionary for keys, level, thread and logger names). The spool can be
+     * transcoded to JSON lines (identical to the ones written in JSON mode) later on by the
+     * {@link SpoolTranscoder}.
+     *
+     * @param binarySpool {@code true} to write a binary spool instead of JSON lines
+     */
+    public void setBinarySpool(final boolean binarySpool) {
+        this.binarySpool = binarySpool;
+    }
+
+    public boolean isShareEncodedEvents() {
+        return shareEncodedEvents;
+    }
+
+    /**
+     * Enables sharing of encoded events between encoders with an identical configuration (e.g. of
+     * multiple appenders). An event dispatched to multiple appenders on the same thread is only encoded
+     * once - the other encoders reuse its bytes. Appenders that encode events on another thread
+     * (e.g. asynchronous appenders) don't benefit from this.
+     * <p>
+     * Configurations are compared by their properties and their custom mappers and value serializers -
+     * stateless ones (without instance fields) by class, all others by identity. Stateful instances
+     * configured via XML are therefore never shared, as Joran creates them per encoder. The degradation (see
+     * {@link #setPressureSignal(PressureSignal)}) is determined by each encoder and only events encoded with
+     * the same degradation are shared. Encoders reusing bytes don't update their MDC key statistics.
+     * Not supported in combination with duplicate suppression, binary spool mode and custom mapper
+     * isolation or profiling (as the state of guarded custom mappers differs per encoder).
+     *
+     * @param shareEncodedEvents {@code true} to share encoded events with identically configured encoders
+     */
+    public void setShareEncodedEvents(final boolean shareEncodedEvents) {
+        this.shareEncodedEvents = shareEncodedEvents;
+    }
+
     public boolean isIncludeStacktrace() {
         return includeStacktrace;
     }
@@ -179,6 +427,125 @@ public class AwsJsonLogEncoder extends EncoderBase<ILoggingEvent> {
         this.includeMdc = includeMdc;
     }
 
+    public boolean isCacheMdc() {
+        return cacheMdc;
+    }
+
+    /**
+     * Enables caching of the serialized MDC by identity of the MDC property map. Logback's MDC adapter
+     * hands out the same (read-only) map instance until the MDC is modified, so consecutive events
+     * only have to copy the cached fragment.
+     * <p>
+     * Only enable this, if the MDC adapter in use never modifies a map it has already handed out.
+     *
+     * @param cacheMdc {@code true} to cache the serialized MDC
+     */
+    public void setCacheMdc(final boolean cacheMdc) {
+        this.cacheMdc = cacheMdc;
+    }
+
+    public List<String> getMdcIncludes() {
+        return mdcIncludes;
+    }
+
+    /**
+     * Restricts the MDC to the given key. Keys ending with {@code *} are prefixes, e.g. {@code trace*}.
+     * If no includes are defined, all keys are included.
+     *
+     * @param mdcInclude the key or prefix to include
+     */
+    public void addMdcInclude(final String mdcInclude) {
+        addMdcPattern(mdcIncludes, "mdcInclude", mdcInclude);
+    }
+
+    public List<String> getMdcExcludes() {
+        return mdcExcludes;
+    }
+
+    /**
+     * Excludes the given key from the MDC. Keys ending with {@code *} are prefixes, e.g. {@code otel.*}.
+     * Excludes take precedence over includes.
+     *
+     * @param mdcExclude the key or prefix to exclude
+     */
+    public void addMdcExclude(final String mdcExclude) {
+        addMdcPattern(mdcExcludes, "mdcExclude", mdcExclude);
+    }
+
+    private void addMdcPattern(final List<String> dst, final String property, final String pattern) {
+        final String trimmed = pattern.trim();
+        if (trimmed.isEmpty()) {
+            addWarn(property + " must not be empty");
+        } else {
+            dst.add(trimmed);
+        }
+    }
+
+    public Map<String, String> getMdcRenames() {
+        return mdcRenames;
+    }
+
+    /**
+     * Renames an MDC key. The format is {@code key:newKey}, e.g. {@code X-B3-TraceId:traceId}.
+     *
+     * @param mdcRename the key and new key in format {@code key:newKey}
+     */
+    @SuppressWarnings("PMD.AvoidLiteralsInIfCondition")
+    public void addMdcRename(final String mdcRename) {
+        final String[] split = mdcRename.split(":", 2);
+        if (split.length == 2 && !split[0].isBlank() && !split[1].isBlank()) {
+            mdcRenames.put(split[0].trim(), split[1].trim());
+        } else {
+            addWarn("mdcRename must be in format key:newKey - rejecting '" + mdcRename + "'");
+        }
+    }
+
+    public Set<String> getMdcTopLevelKeys() {
+        return mdcTopLevelKeys;
+    }
+
+    /**
+     * Writes the given MDC key (with its possibly renamed name) as top-level field instead of
+     * within the {@code mdc} object. The key has to be included by the include/exclude rules.
+     *
+     * @param mdcTopLevelKey the MDC key to write as top-level field
+     */
+    public void addMdcTopLevelKey(final String mdcTopLevelKey) {
+        final String trimmed = mdcTopLevelKey.trim();
+        if (trimmed.isEmpty()) {
+            addWarn("mdcTopLevelKey must not be empty");
+        } else {
+            mdcTopLevelKeys.add(trimmed);
+        }
+    }
+
+    public boolean isCollectMdcKeyStatistics() {
+        return collectMdcKeyStatistics;
+    }
+
+    /**
+     * Enables counting of the bytes written per MDC key (to tune the MDC include/exclude rules).
+     * The statistics are reported on stop and available via {@link #getMdcKeyStatistics()}.
+     * Disables {@link #setCacheMdc(boolean) MDC caching}.
+     *
+     * @param collectMdcKeyStatistics {@code true} to count the bytes written per MDC key
+     */
+    public void setCollectMdcKeyStatistics(final boolean collectMdcKeyStatistics) {
+        this.collectMdcKeyStatistics = collectMdcKeyStatistics;
+    }
+
+    /**
+     * Returns the number of bytes (UTF-8) written per MDC key (by its original name) - the JSON encoded
+     * key (as renamed) and value, without separators. Excluded keys are reported with zero bytes.
+     *
+     * @return the number of bytes written per MDC key
+     */
+    public Map<String, Long> getMdcKeyStatistics() {
+        final Map<String, Long> statistics = new TreeMap<>();
+        mdcKeyStatistics.forEach((key, count) -> statistics.put(key, count.sum()));
+        return statistics;
+    }
+
     public boolean isIncludeKeyValues() {
         return includeKeyValues;
     }
@@ -195,6 +562,88 @@ public class AwsJsonLogEncoder extends EncoderBase<ILoggingEvent> {
         this.includeCaller = includeCaller;
     }
 
+    public boolean isCallerStackWalker() {
+        return callerStackWalker;
+    }
+
+    /**
+     * Enables the extraction of caller data by walking only the required frames of the logging thread's stack
+     * (instead of creating a full stack trace). The result is cached per call site. Like Logback's own caller
+     * data extraction, frames of the framework packages configured in the logger context are skipped.
+     * <p>
+     * This only works if the event is encoded on the logging thread (synchronous appenders). If the caller
+     * data of the event has already been computed (e.g. by an asynchronous appender), it is used instead.
+     *
+     * @param callerStackWalker {@code true} to use the StackWalker for caller data extraction
+     */
+    public void setCallerStackWalker(final boolean callerStackWalker) {
+        this.callerStackWalker = callerStackWalker;
+    }
+
+    public Level getCallerMinLevel() {
+        return fieldMinLevels.get("caller");
+    }
+
+    /**
+     * Sets the minimum level of events for which caller data is included (if enabled).
+     * This is an alias for {@link #addFieldMinLevel(String) fieldMinLevel} {@code caller:level} -
+     * whichever is set last takes effect.
+     *
+     * @param callerMinLevel the minimum level or {@code null} to include caller data for all levels
+     */
+    public void setCallerMinLevel(final Level callerMinLevel) {
+        if (callerMinLevel == null) {
+            fieldMinLevels.remove("caller");
+        } else {
+            fieldMinLevels.put("caller", callerMinLevel);
+        }
+    }
+
+    public Duration getDuplicateSuppressionWindow() {
+        return duplicateSuppressionWindow;
+    }
+
+    /**
+     * Enables the suppression of identical events (same logger, level, raw message and throwable class)
+     * within the given time window. The first event of a window is logged, the number of suppressed
+     * repeats is added as field {@code repeated} to the first event of the next window. If the event doesn't
+     * recur, the last suppressed repeat is logged (with field {@code repeated}) once the window has expired -
+     * along with the next encoded event or, at the latest, with the footer when the output is closed.
+     *
+     * @param duplicateSuppressionWindow the window length or {@code null} to disable suppression
+     */
+    public void setDuplicateSuppressionWindow(final Duration duplicateSuppressionWindow) {
+        this.duplicateSuppressionWindow = duplicateSuppressionWindow;
+    }
+
+    public int getDuplicateSuppressionMaxKeys() {
+        return duplicateSuppressionMaxKeys;
+    }
+
+    /**
+     * Sets the maximum number of distinct events tracked for duplicate suppression.
+     * Events beyond that limit are not suppressed.
+     *
+     * @param duplicateSuppressionMaxKeys the maximum number of tracked events
+     */
+    public void setDuplicateSuppressionMaxKeys(final int duplicateSuppressionMaxKeys) {
+        this.duplicateSuppressionMaxKeys = duplicateSuppressionMaxKeys;
+    }
+
+    public PressureSignal getPressureSignal() {
+        return pressureSignal;
+    }
+
+    /**
+     * Sets the signal that controls the degradation of the output under backpressure.
+     *
+     * @param pressureSignal the pressure signal or {@code null} to never degrade the output
+     * @see Degradation
+     */
+    public void setPressureSignal(final PressureSignal pressureSignal) {
+        this.pressureSignal = pressureSignal;
+    }
+
     private void addField(final Map<String, Object> dst, final String key, final String value) {
         if (key.isEmpty()) {
             addWarn("staticField key must not be empty");
@@ -205,89 +654,585 @@ public class AwsJsonLogEncoder extends EncoderBase<ILoggingEvent> {
         }
     }
 
-    @SuppressWarnings({"checkstyle:NPathComplexity", "checkstyle:CyclomaticComplexity"})
     @Override
     public void start() {
-        if (includeTimestamp) {
-            mappers.add((json, event) -> json.append("timestamp", event.getTimeStamp()));
+        if (includeCaller && callerStackWalker) {
+            final List<String> frameworkPackages = getContext() instanceof LoggerContext
+                ? ((LoggerContext) getContext()).getFrameworkPackages() : null;
+            callerExtractor = new StackWalkerCallerExtractor(ste ->
+                SimpleJsonEncoder.renderFragment(j -> appendCaller(j, ste)), frameworkPackages);
+        }
+
+        if (!valueSerializers.isEmpty()) {
+            valueSerializerRegistry = new ValueSerializers(valueSerializers);
+        }
+        if (includeMarker) {
+            markerCache = new IdentityFragmentCache<>(FRAGMENT_CACHE_SIZE);
+        }
+        if (cacheMdc && !collectMdcKeyStatistics) {
+            mdcCache = new IdentityFragmentCache<>(FRAGMENT_CACHE_SIZE);
+        }
+        if (!mdcIncludes.isEmpty() || !mdcExcludes.isEmpty() || !mdcRenames.isEmpty()
+            || !mdcTopLevelKeys.isEmpty()) {
+            mdcRules = new MdcRules(mdcIncludes, mdcExcludes, mdcRenames, mdcTopLevelKeys);
+            for (final String topLevelKey : mdcTopLevelKeys) {
+                final String name = mdcRenames.getOrDefault(topLevelKey, topLevelKey);
+                if (FIELD_NAMES.contains(name)) {
+                    addWarn("mdcTopLevelKey '" + name + "' collides with a built-in field");
+                }
+            }
+        }
+
+        customMapperGuards = guardCustomMappers();
+        pipelines = buildPipelines();
+
+        if (binarySpool) {
+            spoolDictionary = new SpoolDictionary(0);
         }
-        if (includeNanoseconds) {
+
+        if (duplicateSuppressionWindow != null && duplicateSuppressionWindow.getMilliseconds() > 0) {
+            duplicateSuppressor = new DuplicateSuppressor(duplicateSuppressionWindow.getMilliseconds(),
+                duplicateSuppressionMaxKeys);
+        }
+
+        sharedEncodingKey = null;
+        if (shareEncodedEvents) {
+            if (binarySpool || duplicateSuppressor != null || !customMapperGuards.isEmpty()) {
+                addWarn("shareEncodedEvents is not supported with binarySpool, duplicate suppression or custom"
+                    + " mapper isolation/profiling - ignoring");
+            } else {
+                final List<Object> instances = new ArrayList<>(customMappers);
+                instances.addAll(valueSerializers);
+                sharedEncodingKey = new SharedEncodingCache.Key(sharedEncodingProperties(), instances);
+            }
+        }
+
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (collectMdcKeyStatistics && !mdcKeyStatistics.isEmpty()) {
+            addInfo("Bytes written per MDC key: " + getMdcKeyStatistics());
+        }
+        for (final CustomMapperStatistics statistics : getCustomMapperStatistics()) {
+            addInfo("Custom mapper statistics: " + statistics);
+        }
+        if (sharedEncodingKey != null) {
+            SharedEncodingCache.clear();
+        }
+
+        super.stop();
+    }
+
+    private List<CustomMapperGuard> guardCustomMappers() {
+        final long timeBudgetNanos = customMapperTimeBudget != null
+            ? TimeUnit.MILLISECONDS.toNanos(customMapperTimeBudget.getMilliseconds()) : 0;
+        final int sampleInterval = Math.max(0, customMapperSampleInterval);
+
+        if (customMapperErrorPolicy == CustomMapperErrorPolicy.PROPAGATE && sampleInterval == 0
+            && timeBudgetNanos == 0) {
+            return List.of();
+        }
+
+        final List<CustomMapperGuard> guards = new ArrayList<>(customMappers.size());
+        for (final BiConsumer<SimpleJsonEncoder, ILoggingEvent> customMapper : customMappers) {
+            guards.add(new CustomMapperGuard(customMapper, customMapperErrorPolicy, sampleInterval,
+                timeBudgetNanos, customMapperMaxBudgetViolations, this));
+        }
+        return guards;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<BiConsumer<SimpleJsonEncoder, ILoggingEvent>>[][] buildPipelines() {
+        final Degradation[] degradations = Degradation.values();
+        final List<BiConsumer<SimpleJsonEncoder, ILoggingEvent>>[][] levelPipelines =
+            new List[LEVELS.length][degradations.length];
+
+        for (final Level level : LEVELS) {
+            for (final Degradation degradation : degradations) {
+                if (degradation.isAtLeast(Degradation.ESSENTIAL_ONLY) && !level.isGreaterOrEqual(Level.INFO)) {
+                    continue;
+                }
+                levelPipelines[levelIndex(level)][degradation.ordinal()] = buildMappers(level, degradation);
+            }
+        }
+
+        return levelPipelines;
+    }
+
+    /**
+     * Maps the level to its pipeline index (TRACE: 0, DEBUG: 1, INFO: 2, WARN: 3, ERROR: 4).
+     *
+     * @param level the level of the event
+     * @return the pipeline index
+     */
+    private static int levelIndex(final Level level) {
+        return Math.max(0, Math.min(level.toInt() / Level.DEBUG_INT, LEVELS.length - 1));
+    }
+
+    @SuppressWarnings({"checkstyle:NPathComplexity", "checkstyle:CyclomaticComplexity",
+        "checkstyle:ExecutableStatementCount", "PMD.CognitiveComplexity", "PMD.NPathComplexity"})
+    private List<BiConsumer<SimpleJsonEncoder, ILoggingEvent>> buildMappers(final Level level,
+                                                                           final Degradation degradation) {
+        final List<BiConsumer<SimpleJsonEncoder, ILoggingEvent>> mappers = new ArrayList<>();
+
+        if (isFieldEnabled(includeTimestamp, "timestamp", level)) {
+            mappers.add(timestampMapper());
+        }
+        if (isFieldEnabled(includeNanoseconds, "nanoseconds", level)) {
             mappers.add((json, event) -> json.append("nanoseconds", event.getNanoseconds()));
         }
-        if (includeSequenceNumber) {
+        if (isFieldEnabled(includeSequenceNumber, "sequenceNumber", level)) {
             mappers.add((json, event) -> json.append("sequenceNumber", event.getSequenceNumber()));
         }
-        if (includeLevelName) {
+        if (isFieldEnabled(includeLevelName, "level", level)) {
             mappers.add((json, event) -> json.append("level", event.getLevel().toString()));
         }
-        if (includeThreadName) {
+        if (isFieldEnabled(includeThreadName, "thread", level)) {
             mappers.add((json, event) -> json.append("thread", event.getThreadName()));
         }
-        if (includeLoggerName) {
+        if (isFieldEnabled(includeLoggerName, "logger", level)) {
             mappers.add((json, event) -> json.append("logger", event.getLoggerName()));
         }
-        if (includeFormattedMessage) {
-            mappers.add((json, event) -> json.append("message", event.getFormattedMessage()));
+        if (isFieldEnabled(includeFormattedMessage, "message", level)) {
+            mappers.add(directMessageFormatting
+                ? (json, event) -> appendFormattedMessage(json, event)
+                : (json, event) -> json.append("message", event.getFormattedMessage()));
         }
-        if (includeRawMessage) {
-            mappers.add((json, event) -> json.append("rawMessage", event.getMessage()));
+        if (isFieldEnabled(includeRawMessage, "rawMessage", level)) {
+            mappers.add(directMessageFormatting
+                ? (json, event) -> appendRawMessage(json, event)
+                : (json, event) -> json.append("rawMessage", event.getMessage()));
         }
-        if (includeMarker) {
-            mappers.add((json, event) -> appendMarker(json, event.getMarkerList()));
+        if (isFieldEnabled(includeMarker, "markers", level)) {
+            mappers.add((json, event) -> appendMarkers(json, event.getMarkerList()));
         }
-        if (includeMdc) {
-            mappers.add((json, event) -> appendMdc(json, event.getMDCPropertyMap()));
+        if (isFieldEnabled(includeMdc, "mdc", level) && !degradation.isAtLeast(Degradation.ESSENTIAL_ONLY)) {
+            mappers.add(mdcMapper());
         }
-        if (includeKeyValues) {
+        if (isFieldEnabled(includeKeyValues, "keyValues", level)) {
             mappers.add((json, event) -> appendKeyValues(json, event.getKeyValuePairs()));
         }
-        if (includeCaller) {
-            mappers.add((json, event) -> appendCaller(json, event.getCallerData()));
+        if (isCallerEnabled(level, degradation)) {
+            mappers.add(callerMapper());
         }
-        if (includeStacktrace) {
+        final boolean stacktrace = isFieldEnabled(includeStacktrace, "stacktrace", level);
+        final boolean collapseStacktrace = degradation.isAtLeast(Degradation.ROOT_CAUSE_ONLY);
+        if (stacktrace && !collapseStacktrace) {
             mappers.add((json, event) -> appendThrowable(json, event.getThrowableProxy()));
         }
-        if (includeRootCause) {
+        if (isFieldEnabled(includeRootCause, "rootCause", level) || stacktrace && collapseStacktrace) {
             mappers.add((json, event) -> appendRootCause(json, event.getThrowableProxy()));
         }
-        if (!staticFields.isEmpty()) {
+        if (isFieldEnabled(!staticFields.isEmpty(), "staticFields", level)) {
             mappers.add((json, event) -> appendStaticFields(json, staticFields));
         }
 
-        mappers.addAll(customMappers);
+        mappers.addAll(customMapperGuards.isEmpty() ? customMappers : customMapperGuards);
 
-        super.start();
+        if (degradation != Degradation.NONE) {
+            final int degradationLevel = degradation.ordinal();
+            mappers.add((json, event) -> json.append("degraded", degradationLevel));
+        }
+
+        return mappers;
+    }
+
+    private boolean isFieldEnabled(final boolean enabled, final String field, final Level level) {
+        if (!enabled) {
+            return false;
+        }
+
+        final Level minLevel = fieldMinLevels.get(field);
+        return minLevel == null || level.isGreaterOrEqual(minLevel);
+    }
+
+    private boolean isCallerEnabled(final Level level, final Degradation degradation) {
+        return isFieldEnabled(includeCaller, "caller", level)
+            && !degradation.isAtLeast(Degradation.NO_CALLER);
+    }
+
+    /**
+     * Builds a string of all properties that affect the output, so identically configured
+     * encoders can share encoded events. Custom mappers and value serializers are compared separately
+     * (see {@link SharedEncodingCache.Key}), the degradation is determined per event.
+     *
+     * @return the properties of the configuration
+     */
+    private String sharedEncodingProperties() {
+        return new StringBuilder(getClass().getName())
+            .append("|timestamp=").append(includeTimestamp).append(',').append(timestampFormat)
+            .append("|nanoseconds=").append(includeNanoseconds)
+            .append("|sequenceNumber=").append(includeSequenceNumber)
+            .append("|level=").append(includeLevelName)
+            .append("|thread=").append(includeThreadName)
+            .append("|logger=").append(includeLoggerName)
+            .append("|message=").append(includeFormattedMessage).append(',').append(directMessageFormatting)
+            .append("|rawMessage=").append(includeRawMessage)
+            .append("|stacktrace=").append(includeStacktrace)
+            .append("|rootCause=").append(includeRootCause)
+            .append("|markers=").append(includeMarker)
+            .append("|mdc=").append(includeMdc).append(',').append(mdcIncludes).append(',').append(mdcExcludes)
+            .append(',').append(mdcRenames).append(',').append(mdcTopLevelKeys)
+            .append("|keyValues=").append(includeKeyValues)
+            .append("|caller=").append(includeCaller).append(',').append(callerStackWalker)
+            .append("|fieldMinLevels=").append(new TreeMap<>(fieldMinLevels))
+            .append("|staticFields=").append(staticFields)
+            .toString();
     }
 
     @Override
     public byte[] encode(final ILoggingEvent event) {
+        if (duplicateSuppressor != null) {
+            final byte[] encoded = encodeEvent(event);
+            return appendSummaries(encoded, duplicateSuppressor.expire(event.getTimeStamp()));
+        }
+
+        return encodeEvent(event);
+    }
+
+    private byte[] encodeEvent(final ILoggingEvent event) {
+        if (binarySpool) {
+            return encodeSpoolRecord(event, new StringBuilder(INITIAL_BUFFER_SIZE));
+        }
+
+        final Degradation degradation = currentDegradation();
+        if (sharedEncodingKey != null) {
+            return SharedEncodingCache.get(event, sharedEncodingKey, degradation,
+                () -> encodeJson(event, degradation));
+        }
+
+        return encodeJson(event, degradation);
+    }
+
+    private byte[] encodeJson(final ILoggingEvent event, final Degradation degradation) {
+        final StringBuilder sb = new StringBuilder(INITIAL_BUFFER_SIZE);
+        if (!encode(event, sb, null, degradation)) {
+            return EMPTY;
+        }
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] encodeSpoolRecord(final ILoggingEvent event, final StringBuilder sb) {
+        final SpoolRecorder recorder = new SpoolRecorder(spoolDictionary);
+        return encode(event, sb, recorder) ? recorder.finish(sb) : EMPTY;
+    }
+
+    /**
+     * Appends the summaries of expired duplicate suppression windows (each as its own line or record)
+     * to the given encoded event.
+     */
+    private byte[] appendSummaries(final byte[] encoded, final List<DuplicateSuppressor.Summary> summaries) {
+        if (summaries.isEmpty()) {
+            return encoded;
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length + INITIAL_BUFFER_SIZE);
+        out.writeBytes(encoded);
+        for (final DuplicateSuppressor.Summary summary : summaries) {
+            out.writeBytes(encodeSummary(summary));
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] encodeSummary(final DuplicateSuppressor.Summary summary) {
         final StringBuilder sb = new StringBuilder(INITIAL_BUFFER_SIZE);
+        if (binarySpool) {
+            final SpoolRecorder recorder = new SpoolRecorder(spoolDictionary);
+            return encodeSummary(summary, sb, recorder) ? recorder.finish(sb) : EMPTY;
+        }
+
+        return encodeSummary(summary, sb, null) ? sb.toString().getBytes(StandardCharsets.UTF_8) : EMPTY;
+    }
+
+    /**
+     * Encodes the given events into one contiguous buffer.
+     *
+     * @param events the events to encode
+     * @return the batch containing the encoded lines
+     */
+    public EncodedBatch encodeBatch(final List<? extends ILoggingEvent> events) {
+        return encodeBatch(events, new EncodedBatch());
+    }
+
+    /**
+     * Encodes the given events into one contiguous buffer. The batch (and its buffer) is cleared
+     * before and can be reused for subsequent invocations (by the same thread).
+     *
+     * @param events the events to encode
+     * @param batch the batch to encode the events into
+     * @return the batch containing the encoded lines
+     */
+    public EncodedBatch encodeBatch(final Iterable<? extends ILoggingEvent> events, final EncodedBatch batch) {
+        batch.clear();
+
+        for (final ILoggingEvent event : events) {
+            if (binarySpool) {
+                final byte[] record = encodeSpoolRecord(event, batch.lineBuffer());
+                if (record.length > 0) {
+                    batch.appendLine(record);
+                }
+            } else if (encode(event, batch.lineBuffer(), null)) {
+                batch.commitLine();
+            }
+
+            if (duplicateSuppressor != null) {
+                for (final DuplicateSuppressor.Summary summary : duplicateSuppressor.expire(event.getTimeStamp())) {
+                    if (binarySpool) {
+                        final byte[] record = encodeSummary(summary);
+                        if (record.length > 0) {
+                            batch.appendLine(record);
+                        }
+                    } else if (encodeSummary(summary, batch.lineBuffer(), null)) {
+                        batch.commitLine();
+                    }
+                }
+            }
+        }
+
+        return batch;
+    }
+
+    /**
+     * Encodes the given event (including the line separator) into the given writer.
+     *
+     * @param event the event to encode
+     * @param sb the writer to encode the event into
+     * @param spoolRecorder the recorder for binary spool output (no line separator is written) or
+     *     {@code null} for JSON output
+     * @return {@code false} if the event has been dropped
+     */
+    private boolean encode(final ILoggingEvent event, final StringBuilder sb, final SpoolRecorder spoolRecorder) {
+        return encode(event, sb, spoolRecorder, currentDegradation());
+    }
+
+    private boolean encode(final ILoggingEvent event, final StringBuilder sb, final SpoolRecorder spoolRecorder,
+                           final Degradation degradation) {
+        final List<BiConsumer<SimpleJsonEncoder, ILoggingEvent>> pipeline =
+            pipelines[levelIndex(event.getLevel())][degradation.ordinal()];
+        if (pipeline == null) {
+            return false;
+        }
+
+        final long repeated = duplicateSuppressor != null ? duplicateSuppressor.check(event) : 0;
+        if (repeated == DuplicateSuppressor.SUPPRESS) {
+            return false;
+        }
+
+        appendEvent(event, sb, spoolRecorder, pipeline, repeated);
+        return true;
+    }
 
-        final var json = new SimpleJsonEncoder(sb);
-        mappers.forEach(m -> m.accept(json, event));
+    /**
+     * Encodes the last suppressed event of an expired duplicate suppression window (including the
+     * line separator) along with the number of suppressed events.
+     *
+     * @return {@code false} if the event has been dropped
+     */
+    private boolean encodeSummary(final DuplicateSuppressor.Summary summary, final StringBuilder sb,
+                                  final SpoolRecorder spoolRecorder) {
+        final ILoggingEvent event = summary.getEvent();
+        final List<BiConsumer<SimpleJsonEncoder, ILoggingEvent>> pipeline =
+            pipelines[levelIndex(event.getLevel())][currentDegradation().ordinal()];
+        if (pipeline == null) {
+            return false;
+        }
+
+        appendEvent(event, sb, spoolRecorder, pipeline, summary.getRepeated());
+        return true;
+    }
+
+    private void appendEvent(final ILoggingEvent event, final StringBuilder sb, final SpoolRecorder spoolRecorder,
+                             final List<BiConsumer<SimpleJsonEncoder, ILoggingEvent>> pipeline,
+                             final long repeated) {
+        final var json = new SimpleJsonEncoder(sb, valueSerializerRegistry, spoolRecorder);
+        pipeline.forEach(m -> m.accept(json, event));
+        if (repeated > 0) {
+            json.append("repeated", repeated);
+        }
         json.end();
 
-        sb.append(System.lineSeparator());
+        if (spoolRecorder == null) {
+            sb.append(System.lineSeparator());
+        }
+    }
 
-        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    private BiConsumer<SimpleJsonEncoder, ILoggingEvent> callerMapper() {
+        return (json, event) -> {
+            if (callerExtractor == null || event.hasCallerData()) {
+                appendCaller(json, event.getCallerData());
+            } else {
+                final String caller = callerExtractor.extract();
+                if (caller != null) {
+                    json.appendFragment(caller);
+                }
+            }
+        };
+    }
+
+    private BiConsumer<SimpleJsonEncoder, ILoggingEvent> timestampMapper() {
+        switch (timestampFormat) {
+            case EPOCH_MICROS:
+                return (json, event) -> json.append("timestamp", epochMicros(event));
+            case ISO_8601:
+                return (json, event) ->
+                    isoTimestampFormatter.format(event.getTimeStamp(), json.appendRawValue("timestamp"));
+            default:
+                return (json, event) -> json.append("timestamp", event.getTimeStamp());
+        }
+    }
+
+    @SuppressWarnings("checkstyle:MagicNumber")
+    private static long epochMicros(final ILoggingEvent event) {
+        final int nanoseconds = event.getNanoseconds();
+        final long microsOfMilli = nanoseconds > 0 ? nanoseconds / 1000 % 1000 : 0;
+        return event.getTimeStamp() * 1000 + microsOfMilli;
+    }
+
+    private void appendFormattedMessage(final SimpleJsonEncoder json, final ILoggingEvent event) {
+        final MessageTemplate template = messageTemplate(event.getMessage());
+        if (template == null) {
+            json.append("message", null);
+        } else {
+            final Object[] args = event.getArgumentArray();
+            json.appendString("message", sb -> template.appendFormatted(sb, args));
+        }
+    }
+
+    private void appendRawMessage(final SimpleJsonEncoder json, final ILoggingEvent event) {
+        final MessageTemplate template = messageTemplate(event.getMessage());
+        if (template == null) {
+            json.append("rawMessage", null);
+        } else {
+            json.appendString("rawMessage", template::appendRaw);
+        }
+    }
+
+    private MessageTemplate messageTemplate(final String message) {
+        if (message == null) {
+            return null;
+        }
+
+        return messageTemplates.get(message);
+    }
+
+    private BiConsumer<SimpleJsonEncoder, ILoggingEvent> mdcMapper() {
+        if (mdcCache == null) {
+            return (json, event) -> appendMdc(json, event.getMDCPropertyMap());
+        }
+
+        return (json, event) -> {
+            final Map<String, String> mdcProperties = event.getMDCPropertyMap();
+            if (mdcProperties != null && !mdcProperties.isEmpty()) {
+                json.appendFragment(mdcCache.get(mdcProperties,
+                    m -> SimpleJsonEncoder.renderFragment(j -> appendMdc(j, m))));
+            }
+        };
+    }
+
+    private Degradation currentDegradation() {
+        if (pressureSignal == null) {
+            return Degradation.NONE;
+        }
+
+        final Degradation degradation = pressureSignal.getDegradation();
+        return degradation != null ? degradation : Degradation.NONE;
     }
 
-    private static void appendMarker(final SimpleJsonEncoder json, final List<Marker> markerList) {
+    /**
+     * Appends the markers and all their (transitive) references. As markers are usually static singletons,
+     * the rendered fragment of a single marker is cached by identity. Markers with references are mutable
+     * (references can be added and removed at any time), so they are never served from the cache.
+     */
+    private void appendMarkers(final SimpleJsonEncoder json, final List<Marker> markerList) {
         if (markerList == null || markerList.isEmpty()) {
             return;
         }
 
+        if (markerList.size() == 1 && !markerList.get(0).hasReferences()) {
+            json.appendFragment(markerCache.get(markerList.get(0),
+                m -> SimpleJsonEncoder.renderFragment(j -> appendMarkerGraph(j, List.of(m)))));
+        } else {
+            appendMarkerGraph(json, markerList);
+        }
+    }
+
+    private static void appendMarkerGraph(final SimpleJsonEncoder json, final List<Marker> markerList) {
+        final Set<String> markerNames = new LinkedHashSet<>();
+        markerList.forEach(marker -> collectMarkerNames(marker, markerNames));
+
         json.appendObject("markers", j ->
-            markerList.forEach(marker -> j.append(marker.getName(), 1)));
+            markerNames.forEach(name -> j.append(name, 1)));
+    }
+
+    private static void collectMarkerNames(final Marker marker, final Set<String> markerNames) {
+        // the name check also protects against cyclic references
+        if (markerNames.add(marker.getName()) && marker.hasReferences()) {
+            marker.iterator().forEachRemaining(reference -> collectMarkerNames(reference, markerNames));
+        }
     }
 
-    private static void appendMdc(final SimpleJsonEncoder json, final Map<String, String> mdcProperties) {
+    private void appendMdc(final SimpleJsonEncoder json, final Map<String, String> mdcProperties) {
         if (mdcProperties == null || mdcProperties.isEmpty()) {
             return;
         }
 
-        json.appendObject("mdc", j ->
-            mdcProperties.forEach(j::append));
+        if (mdcRules == null) {
+            json.appendObject("mdc", j ->
+                mdcProperties.forEach((key, value) -> appendMdcEntry(j, key, key, value)));
+            return;
+        }
+
+        // decisions are memoized per key, so deciding them in both passes is cheap (and allocation-free)
+        boolean nested = false;
+        for (final Map.Entry<String, String> entry : mdcProperties.entrySet()) {
+            final MdcRules.Decision decision = mdcRules.decide(entry.getKey());
+            if (decision.isTopLevel()) {
+                appendMdcEntry(json, entry.getKey(), decision.getName(), entry.getValue());
+            } else if (decision.isNested()) {
+                nested = true;
+            } else {
+                recordMdcKeyStatistics(entry.getKey(), 0);
+            }
+        }
+
+        if (nested) {
+            json.appendObject("mdc", j -> appendNestedMdcEntries(j, mdcProperties));
+        }
+    }
+
+    private void appendNestedMdcEntries(final SimpleJsonEncoder json, final Map<String, String> mdcProperties) {
+        for (final Map.Entry<String, String> entry : mdcProperties.entrySet()) {
+            final MdcRules.Decision decision = mdcRules.decide(entry.getKey());
+            if (decision.isNested()) {
+                appendMdcEntry(json, entry.getKey(), decision.getName(), entry.getValue());
+            }
+        }
+    }
+
+    private void appendMdcEntry(final SimpleJsonEncoder json, final String key, final String name,
+                                final String value) {
+        json.append(name, value);
+        if (collectMdcKeyStatistics) {
+            recordMdcKeyStatistics(key, SimpleJsonEncoder.jsonLength(name) + 1 + SimpleJsonEncoder.jsonLength(value));
+        }
+    }
+
+    private void recordMdcKeyStatistics(final String key, final int length) {
+        if (!collectMdcKeyStatistics) {
+            return;
+        }
+
+        LongAdder counter = mdcKeyStatistics.get(key);
+        if (counter == null) {
+            if (mdcKeyStatistics.size() >= MAX_MDC_KEY_STATISTICS) {
+                return;
+            }
+            counter = mdcKeyStatistics.computeIfAbsent(key, k -> new LongAdder());
+        }
+        counter.add(length);
     }
 
     private static void appendKeyValues(final SimpleJsonEncoder json, final List<KeyValuePair> keyValuePairs) {
@@ -305,12 +1250,15 @@ public class AwsJsonLogEncoder extends EncoderBase<ILoggingEvent> {
             return;
         }
 
-        final StackTraceElement first = stackTraceElements[0];
+        appendCaller(json, stackTraceElements[0]);
+    }
+
+    private static void appendCaller(final SimpleJsonEncoder json, final StackTraceElement caller) {
         json.appendObject("caller", j -> j
-            .append("file", first.getFileName())
-            .append("line", first.getLineNumber())
-            .append("class", first.getClassName())
-            .append("method", first.getMethodName()));
+            .append("file", caller.getFileName())
+            .append("line", caller.getLineNumber())
+            .append("class", caller.getClassName())
+            .append("method", caller.getMethodName()));
     }
 
     private static void appendThrowable(final SimpleJsonEncoder json, final IThrowableProxy throwableProxy) {
@@ -346,16 +1294,41 @@ public class AwsJsonLogEncoder extends EncoderBase<ILoggingEvent> {
             staticFields.forEach(j::append));
     }
 
+    /**
+     * Returns {@code null} in JSON mode. In binary spool mode, a segment header is returned and a new
+     * string dictionary is started, so each file (as written by an appender) can be transcoded on its own.
+     *
+     * @return the segment header in binary spool mode, otherwise {@code null}
+     */
     @SuppressWarnings("PMD.ReturnEmptyCollectionRatherThanNull")
     @Override
     public byte[] headerBytes() {
-        return null;
+        if (!binarySpool) {
+            return null;
+        }
+
+        // records encoded with the previous dictionary may still be written after this header -
+        // they are resolved by the generation they carry
+        final SpoolDictionary dictionary = new SpoolDictionary(spoolDictionary.getGeneration() + 1);
+        spoolDictionary = dictionary;
+        return SpoolFormat.header(dictionary.getGeneration(), System.lineSeparator());
     }
 
+    /**
+     * Returns the summaries of all duplicate suppression windows with suppressed events, so they aren't lost
+     * when the output is closed.
+     *
+     * @return the summaries or {@code null} if there are none
+     */
     @SuppressWarnings("PMD.ReturnEmptyCollectionRatherThanNull")
     @Override
     public byte[] footerBytes() {
-        return null;
+        if (duplicateSuppressor == null) {
+            return null;
+        }
+
+        final byte[] summaries = appendSummaries(EMPTY, duplicateSuppressor.flush());
+        return summaries.length > 0 ? summaries : null;
     }
 
 }
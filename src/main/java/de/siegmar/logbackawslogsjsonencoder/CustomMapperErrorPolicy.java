@@ -0,0 +1,42 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+/**
+ * Policies for custom mappers that throw an exception.
+ */
+public enum CustomMapperErrorPolicy {
+
+    /**
+     * The exception is propagated - the event is not logged (default).
+     */
+    PROPAGATE,
+
+    /**
+     * The output of the failed invocation is discarded - the event is logged without it.
+     */
+    SKIP,
+
+    /**
+     * Like {@link #SKIP}, but the mapper is disabled after its first failure.
+     */
+    DISABLE
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.spi.ContextAware;
+
+/**
+ * Wraps a custom mapper to sample its invocation time and output length, to isolate its failures
+ * and to disable it if it fails or keeps exceeding its time budget.
+ * <p>
+ * If a time budget is set, every invocation is measured - otherwise a random sample of
+ * (on average) every n-th invocation. The output length is measured in UTF-8 bytes as reported by
+ * {@link SimpleJsonEncoder#byteLength()}.
+ * <p>
+ * Besides exceptions, linkage errors (e.g. a class missing at runtime) and stack overflows of the mapper
+ * are isolated as well - other errors (e.g. {@link OutOfMemoryError}) always propagate.
+ */
+final class CustomMapperGuard implements BiConsumer<SimpleJsonEncoder, ILoggingEvent> {
+
+    private final BiConsumer<SimpleJsonEncoder, ILoggingEvent> mapper;
+    private final String name;
+    private final CustomMapperErrorPolicy errorPolicy;
+    private final int sampleInterval;
+    private final long timeBudgetNanos;
+    private final int maxBudgetViolations;
+    private final ContextAware status;
+
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder sampledInvocations = new LongAdder();
+    private final LongAdder sampledNanos = new LongAdder();
+    private final LongAdder sampledBytes = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong budgetViolations = new AtomicLong();
+    private final AtomicLong consecutiveBudgetViolations = new AtomicLong();
+    private final AtomicBoolean disabled = new AtomicBoolean();
+
+    /**
+     * Creates a new guard.
+     *
+     * @param mapper the custom mapper to guard
+     * @param errorPolicy the policy for failed invocations
+     * @param sampleInterval measure (on average) every n-th invocation or 0 to disable sampling
+     * @param timeBudgetNanos the time budget per invocation in nanoseconds or 0 to disable the budget
+     * @param maxBudgetViolations the number of consecutive budget violations after which the mapper gets
+     *     disabled
+     * @param status the receiver of status messages
+     */
+    CustomMapperGuard(final BiConsumer<SimpleJsonEncoder, ILoggingEvent> mapper,
+                      final CustomMapperErrorPolicy errorPolicy, final int sampleInterval,
+                      final long timeBudgetNanos, final int maxBudgetViolations, final ContextAware status) {
+        this.mapper = mapper;
+        this.name = mapper.getClass().getName();
+        this.errorPolicy = errorPolicy;
+        this.sampleInterval = sampleInterval;
+        this.timeBudgetNanos = timeBudgetNanos;
+        this.maxBudgetViolations = maxBudgetViolations;
+        this.status = status;
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    @Override
+    public void accept(final SimpleJsonEncoder json, final ILoggingEvent event) {
+        if (disabled.get()) {
+            return;
+        }
+
+        invocations.increment();
+
+        final boolean measure = timeBudgetNanos > 0
+            || sampleInterval > 0 && ThreadLocalRandom.current().nextInt(sampleInterval) == 0;
+
+        if (errorPolicy != CustomMapperErrorPolicy.PROPAGATE) {
+            json.mark();
+        }
+
+        final int startLength = measure ? json.byteLength() : 0;
+        final long startNanos = measure ? System.nanoTime() : 0;
+
+        try {
+            mapper.accept(json, event);
+        } catch (final Exception | LinkageError | StackOverflowError e) {
+            final boolean firstError = errors.incrementAndGet() == 1;
+            if (errorPolicy == CustomMapperErrorPolicy.PROPAGATE) {
+                throw e;
+            }
+            handleError(json, e, firstError);
+            return;
+        }
+
+        if (measure) {
+            record(System.nanoTime() - startNanos, json.byteLength() - startLength);
+        }
+    }
+
+    private void handleError(final SimpleJsonEncoder json, final Throwable e, final boolean firstError) {
+        json.reset();
+
+        if (errorPolicy == CustomMapperErrorPolicy.DISABLE) {
+            disable("failed", e);
+        } else if (firstError) {
+            status.addError("Custom mapper " + name + " failed - skipping its output (reported only once)", e);
+        }
+    }
+
+    private void record(final long nanos, final int bytes) {
+        sampledInvocations.increment();
+        sampledNanos.add(nanos);
+        sampledBytes.add(bytes);
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        if (timeBudgetNanos > 0) {
+            checkBudget(nanos);
+        }
+    }
+
+    /**
+     * Disables the mapper if it exceeded its budget too many times in a row - a single invocation within
+     * the budget resets the count, so occasional outliers (e.g. GC pauses) don't disable it.
+     */
+    private void checkBudget(final long nanos) {
+        if (nanos <= timeBudgetNanos) {
+            if (consecutiveBudgetViolations.get() != 0) {
+                consecutiveBudgetViolations.set(0);
+            }
+            return;
+        }
+
+        budgetViolations.incrementAndGet();
+        if (consecutiveBudgetViolations.incrementAndGet() >= maxBudgetViolations) {
+            disable("exceeded its time budget of " + TimeUnit.NANOSECONDS.toMillis(timeBudgetNanos)
+                + " ms " + maxBudgetViolations + " times in a row", null);
+        }
+    }
+
+    private void disable(final String reason, final Throwable e) {
+        if (disabled.compareAndSet(false, true)) {
+            status.addWarn("Custom mapper " + name + " " + reason + " - disabling it", e);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the statistics.
+     *
+     * @return the statistics
+     */
+    CustomMapperStatistics statistics() {
+        return new CustomMapperStatistics(name, invocations.sum(), sampledInvocations.sum(), sampledNanos.sum(),
+            maxNanos.get(), sampledBytes.sum(), errors.get(), budgetViolations.get(), disabled.get());
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+/**
+ * Statistics of a custom mapper.
+ *
+ * @see AwsJsonLogEncoder#getCustomMapperStatistics()
+ */
+public final class CustomMapperStatistics {
+
+    private final String mapper;
+    private final long invocations;
+    private final long sampledInvocations;
+    private final long sampledNanos;
+    private final long maxNanos;
+    private final long sampledBytes;
+    private final long errors;
+    private final long budgetViolations;
+    private final boolean disabled;
+
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    CustomMapperStatistics(final String mapper, final long invocations, final long sampledInvocations,
+                           final long sampledNanos, final long maxNanos, final long sampledBytes,
+                           final long errors, final long budgetViolations, final boolean disabled) {
+        this.mapper = mapper;
+        this.invocations = invocations;
+        this.sampledInvocations = sampledInvocations;
+        this.sampledNanos = sampledNanos;
+        this.maxNanos = maxNanos;
+        this.sampledBytes = sampledBytes;
+        this.errors = errors;
+        this.budgetViolations = budgetViolations;
+        this.disabled = disabled;
+    }
+
+    /**
+     * Returns the class name of the mapper.
+     *
+     * @return the class name of the mapper
+     */
+    public String getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Returns the number of invocations (excluding the ones after the mapper has been disabled).
+     *
+     * @return the number of invocations
+     */
+    public long getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * Returns the number of invocations whose time and output length have been measured.
+     *
+     * @return the number of sampled invocations
+     */
+    public long getSampledInvocations() {
+        return sampledInvocations;
+    }
+
+    /**
+     * Returns the average time of the sampled invocations.
+     *
+     * @return the average time in nanoseconds or 0 if no invocation has been sampled
+     */
+    public long getAverageNanos() {
+        return sampledInvocations == 0 ? 0 : sampledNanos / sampledInvocations;
+    }
+
+    /**
+     * Returns the maximum time of the sampled invocations.
+     *
+     * @return the maximum time in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Returns the average number of UTF-8 bytes written by the sampled invocations (including a separating
+     * comma). In binary spool mode, it is the length of the equivalent JSON output.
+     *
+     * @return the average number of bytes or 0 if no invocation has been sampled
+     */
+    public long getAverageBytes() {
+        return sampledInvocations == 0 ? 0 : sampledBytes / sampledInvocations;
+    }
+
+    /**
+     * Returns the number of invocations that threw an exception.
+     *
+     * @return the number of failed invocations
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Returns the number of invocations that exceeded the time budget (in total, not only consecutive ones).
+     *
+     * @return the number of invocations that exceeded the time budget
+     */
+    public long getBudgetViolations() {
+        return budgetViolations;
+    }
+
+    /**
+     * Returns if the mapper has been disabled (due to an error or time budget violations).
+     *
+     * @return {@code true} if the mapper has been disabled
+     */
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    @Override
+    public String toString() {
+        return mapper + ": invocations=" + invocations
+            + ", sampledInvocations=" + sampledInvocations
+            + ", averageNanos=" + getAverageNanos()
+            + ", maxNanos=" + maxNanos
+            + ", averageBytes=" + getAverageBytes()
+            + ", errors=" + errors
+            + ", budgetViolations=" + budgetViolations
+            + ", disabled=" + disabled;
+    }
+
+}
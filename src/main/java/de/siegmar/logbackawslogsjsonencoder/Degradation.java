@@ -0,0 +1,56 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+/**
+ * Degradation levels of the {@link AwsJsonLogEncoder}. Each level includes the restrictions of all lower levels.
+ * <p>
+ * Events encoded with a level other than {@link #NONE} carry a field {@code degraded} containing the
+ * ordinal of the level.
+ *
+ * @see PressureSignal
+ */
+public enum Degradation {
+
+    /**
+     * No degradation - all configured fields are written.
+     */
+    NONE,
+
+    /**
+     * Caller data is omitted.
+     */
+    NO_CALLER,
+
+    /**
+     * Stacktraces are collapsed to their root cause.
+     */
+    ROOT_CAUSE_ONLY,
+
+    /**
+     * MDC is omitted and events of level DEBUG and below are dropped.
+     */
+    ESSENTIAL_ONLY;
+
+    boolean isAtLeast(final Degradation other) {
+        return compareTo(other) >= 0;
+    }
+
+}
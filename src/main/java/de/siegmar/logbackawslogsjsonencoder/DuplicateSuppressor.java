@@ -0,0 +1,274 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+
+/**
+ * Suppresses bursts of identical log events.
+ * <p>
+ * Events are considered identical if they share the logger, level, raw (unformatted) message and
+ * throwable class. The first event of a window is passed through, all repeats within the window are
+ * suppressed. The number of suppressed events is reported with the first event of the next window, if the
+ * event recurs. Otherwise, the last suppressed event is reported as a summary once the window has expired
+ * (see {@link #expire(long)}) or when the output is closed (see {@link #flush()}).
+ * <p>
+ * Expired windows are checked at most a few times per window length. If the maximum number of tracked
+ * events is reached, expired windows are evicted (after their summary has been taken). Events that can't be
+ * tracked are not suppressed.
+ */
+final class DuplicateSuppressor {
+
+    /**
+     * Marker return value of {@link #check(ILoggingEvent)} for events that have to be suppressed.
+     */
+    static final long SUPPRESS = -1;
+
+    /**
+     * Return value of {@link Window#next(ILoggingEvent, long, long)} for windows that have been evicted
+     * concurrently.
+     */
+    private static final long EVICTED = -2;
+
+    private static final int SWEEPS_PER_WINDOW = 4;
+
+    private final ConcurrentMap<Key, Window> windows = new ConcurrentHashMap<>();
+    private final Queue<Summary> summaries = new ConcurrentLinkedQueue<>();
+    private final AtomicLong nextSweep = new AtomicLong(Long.MIN_VALUE);
+    private final long windowMillis;
+    private final int maxKeys;
+
+    DuplicateSuppressor(final long windowMillis, final int maxKeys) {
+        this.windowMillis = windowMillis;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Checks if the given event is a repeat within its current window.
+     *
+     * @param event the event to check
+     * @return {@link #SUPPRESS} if the event has to be suppressed, otherwise the number of events
+     *     that have been suppressed since the previous window opened
+     */
+    long check(final ILoggingEvent event) {
+        final long now = event.getTimeStamp();
+        final Key key = new Key(event);
+
+        long result;
+        do {
+            result = track(key, event, now);
+        } while (result == EVICTED);
+
+        return result;
+    }
+
+    /**
+     * Takes the summaries of windows that have expired (with suppressed events) until the given time.
+     *
+     * @param now the current time (of the event being encoded)
+     * @return the summaries, in no particular order
+     */
+    List<Summary> expire(final long now) {
+        sweep(now);
+        return takeSummaries();
+    }
+
+    /**
+     * Takes the summaries of all windows with suppressed events, regardless if they have expired.
+     *
+     * @return the summaries, in no particular order
+     */
+    List<Summary> flush() {
+        windows.values().forEach(w -> w.expire(Long.MAX_VALUE, 0, summaries, false));
+        return takeSummaries();
+    }
+
+    private List<Summary> takeSummaries() {
+        if (summaries.isEmpty()) {
+            return List.of();
+        }
+
+        final List<Summary> taken = new ArrayList<>();
+        for (Summary summary = summaries.poll(); summary != null; summary = summaries.poll()) {
+            taken.add(summary);
+        }
+        return taken;
+    }
+
+    private long track(final Key key, final ILoggingEvent event, final long now) {
+        Window window = windows.get(key);
+        if (window == null) {
+            if (windows.size() >= maxKeys) {
+                sweep(now);
+                if (windows.size() >= maxKeys) {
+                    // too many distinct messages - don't track (and don't suppress) this one
+                    return 0;
+                }
+            }
+            window = windows.computeIfAbsent(key, k -> new Window());
+        }
+
+        return window.next(event, now, windowMillis);
+    }
+
+    /**
+     * Takes the summaries of expired windows and evicts them if the maximum number of tracked events is
+     * reached. To avoid scanning all windows for every event, only one thread scans and at most
+     * {@value #SWEEPS_PER_WINDOW} times per window length.
+     */
+    private void sweep(final long now) {
+        final long next = nextSweep.get();
+        if (now >= next
+            && nextSweep.compareAndSet(next, now + Math.max(1, windowMillis / SWEEPS_PER_WINDOW))) {
+            final boolean evict = windows.size() >= maxKeys;
+            windows.values().removeIf(w -> w.expire(now, windowMillis, summaries, evict));
+        }
+    }
+
+    /**
+     * The last suppressed event of an expired window and the number of events suppressed in that window
+     * (including the last one).
+     */
+    static final class Summary {
+
+        private final ILoggingEvent event;
+        private final long repeated;
+
+        Summary(final ILoggingEvent event, final long repeated) {
+            this.event = event;
+            this.repeated = repeated;
+        }
+
+        ILoggingEvent getEvent() {
+            return event;
+        }
+
+        long getRepeated() {
+            return repeated;
+        }
+
+    }
+
+    private static final class Key {
+
+        private final String loggerName;
+        private final Level level;
+        private final String message;
+        private final String throwableClass;
+        private final int hash;
+
+        Key(final ILoggingEvent event) {
+            loggerName = event.getLoggerName();
+            level = event.getLevel();
+            message = event.getMessage();
+
+            final IThrowableProxy throwableProxy = event.getThrowableProxy();
+            throwableClass = throwableProxy != null ? throwableProxy.getClassName() : null;
+
+            hash = Objects.hash(loggerName, level, message, throwableClass);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return hash == key.hash
+                && level == key.level
+                && Objects.equals(message, key.message)
+                && Objects.equals(loggerName, key.loggerName)
+                && Objects.equals(throwableClass, key.throwableClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    private static final class Window {
+
+        private boolean open;
+        private boolean evicted;
+        private long start;
+        private long suppressed;
+        private ILoggingEvent lastSuppressed;
+
+        synchronized long next(final ILoggingEvent event, final long now, final long windowMillis) {
+            if (evicted) {
+                return EVICTED;
+            }
+
+            if (open && now - start < windowMillis) {
+                suppressed++;
+                lastSuppressed = event;
+                return SUPPRESS;
+            }
+
+            final long repeated = suppressed;
+            open = true;
+            start = now;
+            suppressed = 0;
+            lastSuppressed = null;
+            return repeated;
+        }
+
+        /**
+         * Takes the summary of this window, if it is expired and has suppressed events. If requested, the
+         * expired window is marked as evicted. Evicted windows reject further events, so the check and the
+         * removal are atomic.
+         *
+         * @return {@code true} if the window has been evicted
+         */
+        synchronized boolean expire(final long now, final long windowMillis, final Queue<Summary> summaries,
+                                    final boolean evict) {
+            if (!open || now - start < windowMillis) {
+                return false;
+            }
+
+            if (suppressed > 0) {
+                summaries.add(new Summary(lastSuppressed, suppressed));
+                suppressed = 0;
+                lastSuppressed = null;
+            }
+
+            evicted = evict;
+            return evicted;
+        }
+
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encoded lines of a batch of events in one contiguous (UTF-8) buffer.
+ * <p>
+ * A batch can be reused for subsequent invocations of
+ * {@link AwsJsonLogEncoder#encodeBatch(Iterable, EncodedBatch)}, so its buffers are only allocated once.
+ * Instances are not thread-safe.
+ */
+public final class EncodedBatch {
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private static final int INITIAL_LINE_CAPACITY = 32;
+    private static final int INITIAL_LINE_BUFFER_SIZE = 256;
+
+    private final CharsetEncoder charsetEncoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    @SuppressWarnings("PMD.AvoidStringBufferField")
+    private final StringBuilder lineBuffer = new StringBuilder(INITIAL_LINE_BUFFER_SIZE);
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int size;
+    private int[] lineOffsets = new int[INITIAL_LINE_CAPACITY];
+    private int lineCount;
+
+    void clear() {
+        size = 0;
+        lineCount = 0;
+    }
+
+    StringBuilder lineBuffer() {
+        lineBuffer.setLength(0);
+        return lineBuffer;
+    }
+
+    void commitLine() {
+        ensureCapacity((int) Math.ceil(lineBuffer.length() * charsetEncoder.maxBytesPerChar()));
+
+        final ByteBuffer out = ByteBuffer.wrap(buffer, size, buffer.length - size);
+        charsetEncoder.reset();
+        charsetEncoder.encode(CharBuffer.wrap(lineBuffer), out, true);
+        charsetEncoder.flush(out);
+
+        addLine(out.position());
+    }
+
+    void appendLine(final byte[] line) {
+        ensureCapacity(line.length);
+        System.arraycopy(line, 0, buffer, size, line.length);
+        addLine(size + line.length);
+    }
+
+    private void addLine(final int newSize) {
+        if (lineCount == lineOffsets.length) {
+            lineOffsets = Arrays.copyOf(lineOffsets, lineOffsets.length * 2);
+        }
+        lineOffsets[lineCount++] = size;
+        size = newSize;
+    }
+
+    private void ensureCapacity(final int additional) {
+        final int required = size + additional;
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+        }
+    }
+
+    /**
+     * Returns the underlying buffer. Only the first {@link #size()} bytes are valid.
+     * The buffer must not be modified.
+     *
+     * @return the underlying buffer
+     */
+    @SuppressWarnings("PMD.MethodReturnsInternalArray")
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the number of valid bytes in the buffer.
+     *
+     * @return the number of valid bytes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of encoded lines (dropped events don't produce a line).
+     *
+     * @return the number of lines
+     */
+    public int lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Returns the offset of the given line within the buffer.
+     *
+     * @param line the index of the line
+     * @return the offset of the line
+     */
+    public int lineOffset(final int line) {
+        checkLine(line);
+        return lineOffsets[line];
+    }
+
+    /**
+     * Returns the length (in bytes, including the line separator) of the given line.
+     *
+     * @param line the index of the line
+     * @return the length of the line
+     */
+    public int lineLength(final int line) {
+        checkLine(line);
+        final int end = line + 1 < lineCount ? lineOffsets[line + 1] : size;
+        return end - lineOffsets[line];
+    }
+
+    private void checkLine(final int line) {
+        if (line < 0 || line >= lineCount) {
+            throw new IndexOutOfBoundsException("Line " + line + " out of bounds for line count " + lineCount);
+        }
+    }
+
+    /**
+     * Writes all lines to the given output stream (with one write invocation).
+     *
+     * @param out the output stream to write to
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    /**
+     * Returns a copy of all lines.
+     *
+     * @return a copy of all lines
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+}
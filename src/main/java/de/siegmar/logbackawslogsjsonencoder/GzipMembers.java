@@ -0,0 +1,235 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Writes and validates gzip members (RFC 1952). A file of concatenated members is a valid gzip file.
+ * <p>
+ * Each member is self-contained (header, deflate data, trailer), so a file truncated by a crash can
+ * be repaired by cutting it after the last complete member.
+ */
+final class GzipMembers {
+
+    /**
+     * Member header: magic, compression method deflate, no flags, no modification time, no extra flags
+     * and unknown operating system.
+     */
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /**
+     * Number of header bytes (magic, compression method and flags) that have to match when reading.
+     */
+    private static final int HEADER_CHECKED_BYTES = 4;
+
+    private static final int TRAILER_SIZE = 8;
+    private static final int BUFFER_SIZE = 65_536;
+    private static final long UINT_MASK = 0xFFFF_FFFFL;
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    GzipMembers(final int compressionLevel) {
+        deflater = new Deflater(compressionLevel, true);
+    }
+
+    /**
+     * Compresses the given data as one gzip member.
+     *
+     * @param data the data to compress
+     * @param length the number of bytes of data to compress
+     * @param out the stream to write the member to
+     * @throws IOException if an I/O error occurs
+     */
+    void write(final byte[] data, final int length, final OutputStream out) throws IOException {
+        out.write(HEADER);
+
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+
+        crc.reset();
+        crc.update(data, 0, length);
+
+        final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putInt((int) crc.getValue());
+        trailer.putInt(length);
+        out.write(trailer.array());
+    }
+
+    void end() {
+        deflater.end();
+    }
+
+    /**
+     * Determines the length of the valid part of the given data - all complete gzip members
+     * (as written by {@link #write(byte[], int, OutputStream)}) with matching checksum.
+     * <p>
+     * The data is scanned as a stream, so files of any size can be validated with constant memory.
+     *
+     * @param in the (possibly truncated) gzip data
+     * @return the number of bytes of complete members at the start of the data
+     * @throws IOException if an I/O error occurs
+     */
+    static long validLength(final InputStream in) throws IOException {
+        final MemberScanner scanner = new MemberScanner(in);
+        try {
+            long valid = 0;
+            while (scanner.isMemberComplete()) {
+                valid = scanner.position();
+            }
+            return valid;
+        } finally {
+            scanner.end();
+        }
+    }
+
+    private static final class MemberScanner {
+
+        private final InputStream in;
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] input = new byte[BUFFER_SIZE];
+        private final byte[] output = new byte[BUFFER_SIZE];
+        private final byte[] header = new byte[HEADER.length];
+        private final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        /** Position of {@code input[0]} within the stream. */
+        private long base;
+        private int pos;
+        private int limit;
+
+        MemberScanner(final InputStream in) {
+            this.in = in;
+        }
+
+        long position() {
+            return base + pos;
+        }
+
+        boolean isMemberComplete() throws IOException {
+            if (!read(header) || !Arrays.equals(header, 0, HEADER_CHECKED_BYTES, HEADER, 0, HEADER_CHECKED_BYTES)) {
+                return false;
+            }
+
+            final long size = inflate();
+            if (size < 0 || !read(trailer.array())) {
+                return false;
+            }
+
+            return (trailer.getInt(0) & UINT_MASK) == crc.getValue()
+                && (trailer.getInt(Integer.BYTES) & UINT_MASK) == (size & UINT_MASK);
+        }
+
+        /**
+         * Inflates the deflate data of a member and leaves the position right after it.
+         *
+         * @return the uncompressed size or {@code -1} if the data is incomplete or invalid
+         */
+        private long inflate() throws IOException {
+            inflater.reset();
+            crc.reset();
+            long size = 0;
+            try {
+                while (!inflater.finished() && (!inflater.needsInput() || feed())) {
+                    final int n = inflater.inflate(output);
+                    if (n == 0 && inflater.needsDictionary()) {
+                        break;
+                    }
+                    crc.update(output, 0, n);
+                    size += n;
+                }
+            } catch (final DataFormatException e) {
+                return -1;
+            }
+
+            if (!inflater.finished()) {
+                return -1;
+            }
+
+            // input that has not been consumed by the inflater belongs to the trailer
+            pos = limit - inflater.getRemaining();
+            return size;
+        }
+
+        private boolean feed() throws IOException {
+            if (!fill()) {
+                return false;
+            }
+            inflater.setInput(input, pos, limit - pos);
+            pos = limit;
+            return true;
+        }
+
+        private boolean read(final byte[] dst) throws IOException {
+            int off = 0;
+            while (off < dst.length) {
+                if (pos == limit && !fill()) {
+                    return false;
+                }
+                final int n = Math.min(dst.length - off, limit - pos);
+                System.arraycopy(input, pos, dst, off, n);
+                pos += n;
+                off += n;
+            }
+            return true;
+        }
+
+        /**
+         * Reads the next chunk of the stream if the current one has been consumed.
+         *
+         * @return {@code false} if the end of the stream has been reached
+         */
+        private boolean fill() throws IOException {
+            if (pos < limit) {
+                return true;
+            }
+
+            final int n = in.read(input);
+            if (n <= 0) {
+                return false;
+            }
+            base += limit;
+            pos = 0;
+            limit = n;
+            return true;
+        }
+
+        void end() {
+            inflater.end();
+        }
+
+    }
+
+}
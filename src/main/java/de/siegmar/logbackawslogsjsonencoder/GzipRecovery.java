@@ -0,0 +1,90 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Repairs gzip files written by {@link GzipRollingFileAppender} that have been truncated by a crash.
+ * <p>
+ * The appender writes each block as a separate gzip member, so a truncated file is repaired by cutting
+ * it after the last complete member. Only the events of the incomplete last block are lost.
+ * <p>
+ * Usage: {@code java -cp ... de.siegmar.logbackawslogsjsonencoder.GzipRecovery <file>...}
+ */
+public final class GzipRecovery {
+
+    private GzipRecovery() {
+    }
+
+    /**
+     * Command line entry point.
+     *
+     * @param args the files to repair
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings({"checkstyle:UncommentedMain", "PMD.AvoidFileStream", "PMD.CloseResource"})
+    public static void main(final String[] args) throws IOException {
+        final PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), true,
+            StandardCharsets.UTF_8);
+
+        if (args.length == 0) {
+            out.println("Usage: GzipRecovery <file>...");
+            return;
+        }
+
+        for (final String file : args) {
+            final long discarded = recover(Path.of(file));
+            out.println(file + ": " + (discarded > 0 ? "discarded " + discarded + " bytes" : "ok"));
+        }
+    }
+
+    /**
+     * Truncates the given file after its last complete gzip member.
+     *
+     * @param file the file to repair
+     * @return the number of discarded bytes ({@code 0} if the file was intact)
+     * @throws IOException if an I/O error occurs
+     */
+    public static long recover(final Path file) throws IOException {
+        final long validLength;
+        try (InputStream in = Files.newInputStream(file)) {
+            validLength = GzipMembers.validLength(in);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            final long size = channel.size();
+            if (validLength < size) {
+                channel.truncate(validLength);
+            }
+            return size - validLength;
+        }
+    }
+
+}
@@ -0,0 +1,729 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+
+/**
+ * Appender that writes gzip compressed files, rolled by size and/or time.
+ * <p>
+ * Encoded events are collected in blocks. Full blocks are compressed and written by a background
+ * thread, so logging threads never wait on compression or file I/O (unless the queue of pending blocks
+ * is full). Each block is written as a separate gzip member, so the active file is a valid gzip file
+ * after every block and a file truncated by a crash can be repaired by {@link GzipRecovery}.
+ * <p>
+ * Rolled files are renamed to {@code <file>-<yyyyMMdd'T'HHmmss>[.<n>].gz} (UTC timestamp, a {@code .gz}
+ * suffix of the active file name is moved to the end). The number and the total size of rolled files can
+ * be limited by {@link #setMaxHistory(int)} and {@link #setTotalSizeCap(FileSize)} - the oldest ones are
+ * deleted after each roll.
+ * <p>
+ * If the file can't be written, the error is reported once and the file is reopened with an increasing
+ * delay (blocks are dropped in the meantime).
+ *
+ * @param <E> the event type
+ */
+public class GzipRollingFileAppender<E> extends UnsynchronizedAppenderBase<E> {
+
+    private static final long DEFAULT_BLOCK_SIZE = 256 * 1024;
+    private static final long DEFAULT_MAX_FILE_SIZE = 100 * 1024 * 1024;
+    private static final int DEFAULT_QUEUE_SIZE = 16;
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long DEFAULT_MAX_FLUSH_TIME_MILLIS = 1000;
+    private static final String GZ_SUFFIX = ".gz";
+    private static final long MIN_RETRY_DELAY_MILLIS = 100;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60_000;
+
+    // UTC, so timestamps are unique and ordered across daylight saving time changes
+    private static final DateTimeFormatter ROLL_TIMESTAMP = DateTimeFormatter.ofPattern("uuuuMMdd'T'HHmmss")
+        .withZone(ZoneOffset.UTC);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicLong droppedBlocks = new AtomicLong();
+
+    private Encoder<E> encoder;
+    private String file;
+    private FileSize blockSize = new FileSize(DEFAULT_BLOCK_SIZE);
+    private FileSize maxFileSize = new FileSize(DEFAULT_MAX_FILE_SIZE);
+    private Duration rollInterval;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private Duration flushInterval = Duration.buildByMilliseconds(DEFAULT_FLUSH_INTERVAL_MILLIS);
+    private Duration maxFlushTime = Duration.buildByMilliseconds(DEFAULT_MAX_FLUSH_TIME_MILLIS);
+    private boolean neverBlock;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int maxHistory;
+    private FileSize totalSizeCap;
+
+    private BlockingQueue<ByteArrayOutputStream> queue;
+    private ByteArrayOutputStream currentBlock;
+    private Thread worker;
+    private volatile boolean running;
+
+    public Encoder<E> getEncoder() {
+        return encoder;
+    }
+
+    public void setEncoder(final Encoder<E> encoder) {
+        this.encoder = encoder;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * Sets the active file to write to.
+     *
+     * @param file the active file
+     */
+    public void setFile(final String file) {
+        this.file = file;
+    }
+
+    public FileSize getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets the (uncompressed) size of the blocks that are compressed at once. Default: 256 KB.
+     *
+     * @param blockSize the block size
+     */
+    public void setBlockSize(final FileSize blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public FileSize getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * Sets the (compressed) size after which the active file is rolled. Blocks that are already pending
+     * when the size is reached are still written to the file. Default: 100 MB.
+     *
+     * @param maxFileSize the maximum file size
+     */
+    public void setMaxFileSize(final FileSize maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public Duration getRollInterval() {
+        return rollInterval;
+    }
+
+    /**
+     * Sets the age after which the active file is rolled (if it's not empty). Default: no time based rolling.
+     *
+     * @param rollInterval the maximum age of the active file
+     */
+    public void setRollInterval(final Duration rollInterval) {
+        this.rollInterval = rollInterval;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sets the maximum number of full blocks waiting for compression. Default: 16.
+     *
+     * @param queueSize the maximum number of pending blocks
+     */
+    public void setQueueSize(final int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public Duration getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Sets the interval after which a partially filled block is written. Default: 1 second.
+     *
+     * @param flushInterval the flush interval
+     */
+    public void setFlushInterval(final Duration flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public Duration getMaxFlushTime() {
+        return maxFlushTime;
+    }
+
+    /**
+     * Sets the maximum time to wait for pending blocks to be written on stop. Default: 1 second.
+     *
+     * @param maxFlushTime the maximum flush time
+     */
+    public void setMaxFlushTime(final Duration maxFlushTime) {
+        this.maxFlushTime = maxFlushTime;
+    }
+
+    public boolean isNeverBlock() {
+        return neverBlock;
+    }
+
+    /**
+     * If enabled, full blocks are dropped (instead of blocking the logging thread) if the queue of
+     * pending blocks is full. Default: {@code false}.
+     *
+     * @param neverBlock {@code true} to drop blocks instead of blocking
+     */
+    public void setNeverBlock(final boolean neverBlock) {
+        this.neverBlock = neverBlock;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the compression level (0-9). Default: {@link Deflater#DEFAULT_COMPRESSION}.
+     *
+     * @param compressionLevel the compression level
+     */
+    public void setCompressionLevel(final int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getMaxHistory() {
+        return maxHistory;
+    }
+
+    /**
+     * Sets the maximum number of rolled files to keep. Default: 0 (unlimited).
+     *
+     * @param maxHistory the maximum number of rolled files
+     */
+    public void setMaxHistory(final int maxHistory) {
+        this.maxHistory = maxHistory;
+    }
+
+    public FileSize getTotalSizeCap() {
+        return totalSizeCap;
+    }
+
+    /**
+     * Sets the maximum total size of all rolled files. Default: unlimited.
+     *
+     * @param totalSizeCap the maximum total size of rolled files
+     */
+    public void setTotalSizeCap(final FileSize totalSizeCap) {
+        this.totalSizeCap = totalSizeCap;
+    }
+
+    @Override
+    public void start() {
+        if (encoder == null) {
+            addError("No encoder set for the appender named \"" + name + "\".");
+            return;
+        }
+        if (file == null) {
+            addError("No file set for the appender named \"" + name + "\".");
+            return;
+        }
+
+        final Path activeFile = Path.of(file);
+        try {
+            if (activeFile.getParent() != null) {
+                Files.createDirectories(activeFile.getParent());
+            }
+            recoverActiveFile(activeFile);
+        } catch (final IOException e) {
+            addError("Failed to prepare file " + activeFile, e);
+            return;
+        }
+
+        queue = new ArrayBlockingQueue<>(queueSize);
+        currentBlock = newBlock();
+        writeIfPresent(currentBlock, encoder.headerBytes());
+        running = true;
+
+        worker = new Thread(new Worker(activeFile), "GzipRollingFileAppender-" + name);
+        worker.setDaemon(true);
+        worker.start();
+
+        super.start();
+    }
+
+    /**
+     * Repairs (if truncated) and rolls a leftover active file of a previous run.
+     */
+    private void recoverActiveFile(final Path activeFile) throws IOException {
+        if (Files.notExists(activeFile)) {
+            return;
+        }
+
+        final long discarded = GzipRecovery.recover(activeFile);
+        if (discarded > 0) {
+            addWarn("Discarded " + discarded + " bytes of incomplete data at the end of " + activeFile);
+        }
+
+        if (Files.size(activeFile) == 0) {
+            Files.delete(activeFile);
+        } else {
+            Files.move(activeFile, rolledFile(activeFile));
+            applyRetention(activeFile);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+
+        super.stop();
+        running = false;
+
+        // wake up the worker (an empty block is not written) - interrupting it would close the file channel
+        queue.offer(new ByteArrayOutputStream(0));
+
+        try {
+            worker.join(maxFlushTime.getMilliseconds());
+            if (worker.isAlive()) {
+                addWarn("Max flush time exceeded - pending blocks may not have been written.");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final long dropped = droppedBlocks.get();
+        if (dropped > 0) {
+            addWarn("Dropped " + dropped + " blocks as the queue was full or the file could not be written.");
+        }
+    }
+
+    @Override
+    protected void append(final E event) {
+        final byte[] bytes = encoder.encode(event);
+        if (bytes == null || bytes.length == 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            awaitCapacity(bytes.length);
+            currentBlock.writeBytes(bytes);
+            if (currentBlock.size() >= blockSize.getSize()) {
+                enqueue(currentBlock);
+                currentBlock = newBlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the queue has capacity for the block that would be filled by the given number of bytes.
+     * Waiting releases the lock, so the worker can always take the lock. As blocks are only enqueued while
+     * holding the lock, the capacity can't be taken by another logging thread.
+     */
+    private void awaitCapacity(final int length) {
+        if (neverBlock) {
+            return;
+        }
+
+        try {
+            while (running && currentBlock.size() + length >= blockSize.getSize() && queue.remainingCapacity() == 0) {
+                notFull.await();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Enqueues a full block. Must be called while holding the lock, so blocks are enqueued in order.
+     */
+    private void enqueue(final ByteArrayOutputStream block) {
+        if (!running || !queue.offer(block)) {
+            droppedBlocks.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wakes up logging threads waiting for free queue capacity.
+     */
+    private void signalNotFull() {
+        lock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ByteArrayOutputStream newBlock() {
+        return new ByteArrayOutputStream((int) blockSize.getSize());
+    }
+
+    /**
+     * Takes all pending blocks (queued and current) in order.
+     *
+     * @param footer {@code true} if the returned blocks have to end with the encoder's footer
+     * @param header {@code true} if the new current block has to start with the encoder's header
+     * @return the pending blocks
+     */
+    private List<ByteArrayOutputStream> takePending(final boolean footer, final boolean header) {
+        final List<ByteArrayOutputStream> pending = new ArrayList<>();
+
+        lock.lock();
+        try {
+            queue.drainTo(pending);
+            notFull.signalAll();
+
+            if (footer) {
+                writeIfPresent(currentBlock, encoder.footerBytes());
+            }
+            if (currentBlock.size() > 0) {
+                pending.add(currentBlock);
+                currentBlock = newBlock();
+            }
+            if (header) {
+                writeIfPresent(currentBlock, encoder.headerBytes());
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return pending;
+    }
+
+    private static void writeIfPresent(final ByteArrayOutputStream block, final byte[] bytes) {
+        if (bytes != null) {
+            block.writeBytes(bytes);
+        }
+    }
+
+    private static String baseName(final Path activeFile) {
+        final String fileName = activeFile.getFileName().toString();
+        return fileName.endsWith(GZ_SUFFIX)
+            ? fileName.substring(0, fileName.length() - GZ_SUFFIX.length())
+            : fileName;
+    }
+
+    private static Path rolledFile(final Path activeFile) throws IOException {
+        final String timestamp = ROLL_TIMESTAMP.format(Instant.now());
+        final String prefix = baseName(activeFile) + "-" + timestamp;
+
+        // continue the numbering of files rolled within the same second (even if some of them have been
+        // deleted by the retention), so a newer file never gets a lower number
+        for (final String key : rolledFiles(activeFile).keySet()) {
+            if (key.startsWith(timestamp)) {
+                final long index = Long.parseLong(key.substring(timestamp.length() + 1)) + 1;
+                return activeFile.resolveSibling(prefix + "." + index + GZ_SUFFIX);
+            }
+        }
+
+        return activeFile.resolveSibling(prefix + GZ_SUFFIX);
+    }
+
+    /**
+     * Deletes the oldest rolled files exceeding {@link #maxHistory} or {@link #totalSizeCap}.
+     */
+    private void applyRetention(final Path activeFile) {
+        if (maxHistory <= 0 && totalSizeCap == null) {
+            return;
+        }
+
+        final Map<String, Path> rolledFiles;
+        try {
+            rolledFiles = rolledFiles(activeFile);
+        } catch (final IOException e) {
+            addWarn("Failed to list rolled files of " + activeFile, e);
+            return;
+        }
+
+        int count = 0;
+        long totalSize = 0;
+        boolean expired = false;
+        for (final Path rolled : rolledFiles.values()) {
+            try {
+                final long size = Files.size(rolled);
+                expired = expired || isExpired(count + 1, totalSize + size);
+                if (expired) {
+                    Files.deleteIfExists(rolled);
+                } else {
+                    count++;
+                    totalSize += size;
+                }
+            } catch (final IOException e) {
+                addWarn("Failed to delete rolled file " + rolled, e);
+            }
+        }
+    }
+
+    private boolean isExpired(final int count, final long totalSize) {
+        return (maxHistory > 0 && count > maxHistory)
+            || (totalSizeCap != null && totalSize > totalSizeCap.getSize());
+    }
+
+    /**
+     * Lists the rolled files of the given active file.
+     *
+     * @return the rolled files by {@code <timestamp>.<number>} - newest first
+     */
+    private static Map<String, Path> rolledFiles(final Path activeFile) throws IOException {
+        final Path dir = activeFile.toAbsolutePath().getParent();
+        final Pattern pattern = Pattern.compile(Pattern.quote(baseName(activeFile) + "-")
+            + "(\\d{8}T\\d{6})(?:\\.(\\d+))?" + Pattern.quote(GZ_SUFFIX));
+
+        final Map<String, Path> rolledFiles = new TreeMap<>(Comparator.reverseOrder());
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                final Matcher matcher = pattern.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    // files rolled within the same second are numbered (the first one without number)
+                    final long index = matcher.group(2) == null ? 0 : Long.parseLong(matcher.group(2));
+                    rolledFiles.put(String.format(Locale.ROOT, "%s.%019d", matcher.group(1), index), file);
+                }
+            });
+        }
+
+        return rolledFiles;
+    }
+
+    private final class Worker implements Runnable {
+
+        private final Path activeFile;
+        private final GzipMembers gzipMembers = new GzipMembers(compressionLevel);
+        private FileChannel channel;
+        private OutputStream out;
+        private long openedAt;
+        private long retryDelay = MIN_RETRY_DELAY_MILLIS;
+        private long retryAt;
+
+        Worker(final Path activeFile) {
+            this.activeFile = activeFile;
+        }
+
+        @Override
+        public void run() {
+            try {
+                open(StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (final IOException e) {
+                fail(e);
+            }
+
+            try {
+                while (running) {
+                    process();
+                }
+
+                finish();
+            } finally {
+                gzipMembers.end();
+
+                // release logging threads waiting for free queue capacity
+                running = false;
+                queue.clear();
+                signalNotFull();
+            }
+        }
+
+        private void process() {
+            final ByteArrayOutputStream block = poll();
+            final List<ByteArrayOutputStream> blocks = block != null ? List.of(block) : takePending(false, false);
+            if (block != null) {
+                signalNotFull();
+            }
+
+            if (!isWritable(false)) {
+                drop(blocks);
+                return;
+            }
+
+            try {
+                writeAll(blocks);
+
+                if (isRollDue()) {
+                    writeAll(takePending(true, true));
+                    roll();
+                }
+            } catch (final IOException e) {
+                fail(e);
+            }
+        }
+
+        private void finish() {
+            final List<ByteArrayOutputStream> blocks = takePending(true, false);
+            if (!isWritable(true)) {
+                drop(blocks);
+                return;
+            }
+
+            try {
+                writeAll(blocks);
+                close();
+
+                // an empty file is not a valid gzip file
+                if (Files.size(activeFile) == 0) {
+                    Files.delete(activeFile);
+                }
+            } catch (final IOException e) {
+                addError("Failed to write to file " + activeFile, e);
+            }
+        }
+
+        private ByteArrayOutputStream poll() {
+            try {
+                return queue.poll(flushInterval.getMilliseconds(), TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                // don't restore the interrupt flag, as it would close the file channel on the final write
+                running = false;
+                return null;
+            }
+        }
+
+        /**
+         * Checks if the file is open - after a failure, the file is reopened (after the retry delay, unless
+         * forced).
+         */
+        private boolean isWritable(final boolean force) {
+            if (out != null) {
+                return true;
+            }
+            if (!force && System.currentTimeMillis() < retryAt) {
+                return false;
+            }
+
+            try {
+                // cut off the member that was incomplete when the failure occurred
+                if (Files.exists(activeFile)) {
+                    GzipRecovery.recover(activeFile);
+                }
+                open(StandardOpenOption.APPEND);
+            } catch (final IOException e) {
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+                retryAt = System.currentTimeMillis() + retryDelay;
+                return false;
+            }
+
+            addInfo("Recovered writing to file " + activeFile);
+            retryDelay = MIN_RETRY_DELAY_MILLIS;
+            return true;
+        }
+
+        /**
+         * Closes the file after a failure - it's reopened by {@link #isWritable(boolean)}.
+         */
+        private void fail(final IOException e) {
+            addError("Failed to write to file " + activeFile + " - dropping blocks until it can be reopened", e);
+
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (final IOException ce) {
+                    addWarn("Failed to close file " + activeFile, ce);
+                }
+            }
+            channel = null;
+            out = null;
+            retryAt = System.currentTimeMillis() + retryDelay;
+        }
+
+        private void drop(final List<ByteArrayOutputStream> blocks) {
+            for (final ByteArrayOutputStream block : blocks) {
+                if (block.size() > 0) {
+                    droppedBlocks.incrementAndGet();
+                }
+            }
+        }
+
+        private void open(final StandardOpenOption mode) throws IOException {
+            channel = FileChannel.open(activeFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode);
+            out = Channels.newOutputStream(channel);
+            if (mode == StandardOpenOption.TRUNCATE_EXISTING) {
+                openedAt = System.currentTimeMillis();
+            }
+        }
+
+        private void close() throws IOException {
+            out.close();
+            out = null;
+            channel = null;
+        }
+
+        private void writeAll(final List<ByteArrayOutputStream> blocks) throws IOException {
+            for (final ByteArrayOutputStream block : blocks) {
+                write(block);
+            }
+        }
+
+        private void write(final ByteArrayOutputStream block) throws IOException {
+            if (block.size() > 0) {
+                gzipMembers.write(block.toByteArray(), block.size(), out);
+            }
+        }
+
+        private boolean isRollDue() throws IOException {
+            final long size = channel.size();
+            if (size == 0) {
+                return false;
+            }
+
+            return size >= maxFileSize.getSize()
+                || (rollInterval != null
+                && System.currentTimeMillis() - openedAt >= rollInterval.getMilliseconds());
+        }
+
+        private void roll() throws IOException {
+            close();
+            Files.move(activeFile, rolledFile(activeFile), StandardCopyOption.ATOMIC_MOVE);
+            open(StandardOpenOption.TRUNCATE_EXISTING);
+            applyRetention(activeFile);
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of pre-rendered JSON fragments keyed by object identity.
+ * <p>
+ * The cache is direct-mapped (each key may only reside in the slot given by its identity hash code),
+ * so lookups are lock-free and the cache never grows. Keys are weakly referenced and thus never
+ * prevent garbage collection. As keys are compared by identity, the cache must only be used for
+ * objects that are not modified after they have been rendered.
+ *
+ * @param <K> the type of the cached keys
+ */
+final class IdentityFragmentCache<K> {
+
+    private final AtomicReferenceArray<Entry<K>> entries;
+    private final int mask;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param size the number of slots, must be a power of two
+     */
+    IdentityFragmentCache(final int size) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of two: " + size);
+        }
+        entries = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the cached fragment for the given key or renders (and caches) it.
+     *
+     * @param key the key to lookup
+     * @param renderer the renderer to create the fragment if it isn't cached
+     * @return the fragment
+     */
+    String get(final K key, final Function<K, String> renderer) {
+        final int slot = System.identityHashCode(key) & mask;
+
+        final Entry<K> entry = entries.get(slot);
+        if (entry != null && entry.get() == key) {
+            return entry.fragment;
+        }
+
+        final String fragment = renderer.apply(key);
+        entries.set(slot, new Entry<>(key, fragment));
+        return fragment;
+    }
+
+    private static final class Entry<K> extends WeakReference<K> {
+
+        private final String fragment;
+
+        Entry(final K key, final String fragment) {
+            super(key);
+            this.fragment = fragment;
+        }
+
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats timestamps as ISO-8601 (UTC) - epoch milliseconds with millisecond precision, instants like
+ * {@link DateTimeFormatter#ISO_INSTANT} (with as many fractional digits as needed, in groups of three).
+ * <p>
+ * The formatted date and time up to the second is cached, so only the fractional part has to be written
+ * for subsequent timestamps of the same second. The cache is published via a volatile field - concurrent
+ * threads may format the same second redundantly, but never have to wait for each other.
+ */
+final class IsoTimestampFormatter {
+
+    private static final DateTimeFormatter SECOND_FORMATTER =
+        DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss").withZone(ZoneOffset.UTC);
+    private static final int MILLIS_PER_SECOND = 1000;
+    private static final int NANOS_PER_MILLI = 1_000_000;
+    private static final int NANOS_PER_MICRO = 1000;
+    private static final int MILLI_DIVISOR = 100;
+    private static final int MICRO_DIVISOR = 100_000;
+    private static final int NANO_DIVISOR = 100_000_000;
+    private static final int TEN = 10;
+
+    private volatile CachedSecond cachedSecond = new CachedSecond(Long.MIN_VALUE, "");
+
+    /**
+     * Appends the timestamp as quoted JSON string.
+     *
+     * @param epochMillis the timestamp to format
+     * @param sb the writer to append to
+     */
+    void format(final long epochMillis, final StringBuilder sb) {
+        final long epochSecond = Math.floorDiv(epochMillis, MILLIS_PER_SECOND);
+        final int millis = Math.floorMod(epochMillis, MILLIS_PER_SECOND);
+
+        sb.append('"').append(second(epochSecond)).append('.');
+        appendDigits(millis, MILLI_DIVISOR, sb);
+        sb.append("Z\"");
+    }
+
+    /**
+     * Appends the instant as quoted JSON string - identical to {@link DateTimeFormatter#ISO_INSTANT}.
+     *
+     * @param instant the instant to format
+     * @param sb the writer to append to
+     */
+    void format(final Instant instant, final StringBuilder sb) {
+        final int nanos = instant.getNano();
+
+        sb.append('"').append(second(instant.getEpochSecond()));
+        if (nanos % NANOS_PER_MILLI == 0) {
+            if (nanos != 0) {
+                appendDigits(nanos / NANOS_PER_MILLI, MILLI_DIVISOR, sb.append('.'));
+            }
+        } else if (nanos % NANOS_PER_MICRO == 0) {
+            appendDigits(nanos / NANOS_PER_MICRO, MICRO_DIVISOR, sb.append('.'));
+        } else {
+            appendDigits(nanos, NANO_DIVISOR, sb.append('.'));
+        }
+        sb.append("Z\"");
+    }
+
+    private String second(final long epochSecond) {
+        CachedSecond second = cachedSecond;
+        if (second.epochSecond != epochSecond) {
+            second = new CachedSecond(epochSecond,
+                SECOND_FORMATTER.format(Instant.ofEpochSecond(epochSecond)));
+            cachedSecond = second;
+        }
+        return second.formatted;
+    }
+
+    private static void appendDigits(final int value, final int highestDivisor, final StringBuilder sb) {
+        for (int divisor = highestDivisor; divisor > 0; divisor /= TEN) {
+            sb.append((char) ('0' + value / divisor % TEN));
+        }
+    }
+
+    private static final class CachedSecond {
+
+        private final long epochSecond;
+        private final String formatted;
+
+        CachedSecond(final long epochSecond, final String formatted) {
+            this.epochSecond = epochSecond;
+            this.formatted = formatted;
+        }
+
+    }
+
+}
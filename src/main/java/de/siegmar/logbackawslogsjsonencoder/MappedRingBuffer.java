@@ -0,0 +1,463 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Multi-producer, single-consumer ring buffer of records in a memory-mapped file.
+ * <p>
+ * The file starts with a header page (magic, version, capacity and the read position) followed by the
+ * data area. Each record is aligned to {@value #ALIGNMENT} bytes and consists of its length, a CRC32
+ * checksum and the payload. Producers reserve space by a CAS on the write position, write checksum and
+ * payload and publish the record by writing its length last (with release semantics). A record that
+ * doesn't fit at the end of the data area is preceded by a padding record (negative length).
+ * <p>
+ * The consumer zeroes consumed space, so all space outside of the pending records is zero and a zero
+ * length marks a record that has not (yet) been published. As the mapping is shared with the operating
+ * system's page cache, published records survive a crash of the JVM (but not of the operating system).
+ * The read position is only persisted after the consumed records have been flushed, so records that have
+ * not been flushed before a crash are read again after the buffer has been reopened.
+ * <p>
+ * The file is locked exclusively while the buffer is open, as concurrent producers and consumers of
+ * different processes (or buffers) would corrupt it.
+ */
+final class MappedRingBuffer implements Closeable {
+
+    private static final int MAGIC = 0x414A5352;
+    private static final int VERSION = 1;
+    private static final int HEADER_PAGE_SIZE = 4096;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int READ_POSITION_OFFSET = 16;
+
+    private static final int ALIGNMENT = 8;
+    private static final int CHECKSUM_OFFSET = 4;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Access to the length fields of records - with memory ordering effects.
+     */
+    private static final VarHandle INT_HANDLE =
+        MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer data;
+    private final int capacity;
+
+    // positions are logical (ever increasing) - the offset within the data area is position % capacity
+    private final AtomicLong writePosition;
+    private volatile long readPosition;
+
+    private byte[] readBuffer = new byte[HEADER_PAGE_SIZE];
+    private boolean replayPending;
+    private long corruptRecords;
+    private long unpublishedRecords;
+
+    private MappedRingBuffer(final FileChannel channel, final FileLock lock, final MappedByteBuffer header,
+                             final MappedByteBuffer data, final long position) {
+        this.channel = channel;
+        this.lock = lock;
+        this.header = header;
+        this.data = data;
+        capacity = data.capacity();
+        writePosition = new AtomicLong(position);
+        readPosition = position;
+    }
+
+    /**
+     * Opens (or creates) a ring buffer.
+     * <p>
+     * If the file already exists, its pending records are kept and have to be
+     * {@link #replay(RecordConsumer, Flushable) replayed} before any new records can be added. The capacity
+     * of an existing file is kept (even if it differs from the requested one), as changing it would discard
+     * the pending records - see {@link #getCapacity()}. Otherwise, the file is (re-)initialized.
+     * <p>
+     * The file is locked until the buffer is {@link #close() closed}.
+     *
+     * @param file the file to map
+     * @param requestedCapacity the capacity of the data area (rounded down to a multiple of {@value #ALIGNMENT})
+     * @return the opened ring buffer
+     * @throws IOException if an I/O error occurs or the file is locked by another process or buffer
+     */
+    @SuppressWarnings("PMD.CloseResource")
+    static MappedRingBuffer open(final Path file, final int requestedCapacity) throws IOException {
+
+        final int requested = alignCapacity(requestedCapacity);
+        if (!isValidCapacity(requested)) {
+            throw new IllegalArgumentException("Capacity too small: " + requestedCapacity);
+        }
+
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            final FileLock lock = tryLock(channel);
+            if (lock == null) {
+                throw new IOException("File " + file + " is locked by another process or appender");
+            }
+
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_PAGE_SIZE);
+            final boolean existing = header.getInt(MAGIC_OFFSET) == MAGIC
+                && header.getInt(VERSION_OFFSET) == VERSION
+                && isValidCapacity(header.getLong(CAPACITY_OFFSET));
+            final int capacity = existing ? (int) header.getLong(CAPACITY_OFFSET) : requested;
+
+            final MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_PAGE_SIZE, capacity);
+            final MappedRingBuffer ringBuffer = new MappedRingBuffer(channel, lock, header, data,
+                existing ? header.getLong(READ_POSITION_OFFSET) : 0);
+
+            if (existing) {
+                ringBuffer.replayPending = true;
+            } else {
+                ringBuffer.reset();
+            }
+
+            return ringBuffer;
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Tries to lock the given channel exclusively.
+     *
+     * @return the lock or {@code null} if the file is already locked (by this or another process)
+     */
+    private static FileLock tryLock(final FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (final OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Releases the lock of the file (if not already released). The content of the file (including the pending
+     * records) is kept.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+
+        try {
+            lock.release();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Rounds the given capacity down to a multiple of {@value #ALIGNMENT}.
+     *
+     * @param capacity the requested capacity
+     * @return the capacity of the data area
+     */
+    static int alignCapacity(final int capacity) {
+        return capacity - capacity % ALIGNMENT;
+    }
+
+    private static boolean isValidCapacity(final long capacity) {
+        return capacity >= ALIGNMENT * 2 && capacity <= Integer.MAX_VALUE && capacity % ALIGNMENT == 0;
+    }
+
+    /**
+     * Returns the capacity of the data area - the one of the existing file if it has been reopened.
+     *
+     * @return the capacity
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Hands the pending records of a previous run to the given consumer and prepares the buffer for
+     * new records. Must be called before any records are added.
+     * <p>
+     * Space that has been reserved, but never been published (e.g. as the JVM was killed while a record was
+     * being added) is skipped - published records behind it are still replayed. The number of skipped
+     * records is available by {@link #getUnpublishedRecords()}.
+     *
+     * @param consumer the consumer of the records
+     * @param output flushed before the read position is persisted
+     * @return the number of replayed records
+     * @throws IOException if the consumer throws an exception or flushing fails
+     */
+    int replay(final RecordConsumer consumer, final Flushable output) throws IOException {
+        if (!replayPending) {
+            return 0;
+        }
+
+        final long end = readPosition + capacity;
+        int count = drain(consumer, output);
+        for (long next = findRecord(readPosition, end); next != -1; next = findRecord(readPosition, end)) {
+            unpublishedRecords++;
+            commit(next);
+            count += drain(consumer, output);
+        }
+
+        reset();
+        replayPending = false;
+        return count;
+    }
+
+    /**
+     * Finds the next record (or padding) behind an unpublished record - by checking all aligned positions
+     * for a valid length and checksum.
+     *
+     * @param from the position of the unpublished record
+     * @param end the end of the pending records
+     * @return the position of the next record or -1 if there is none
+     */
+    private long findRecord(final long from, final long end) {
+        for (long position = from + ALIGNMENT; position < end; position += ALIGNMENT) {
+            final int offset = offset(position);
+            final int length = (int) INT_HANDLE.getAcquire(data, offset);
+            if (length < 0 ? -length == capacity - offset : isValidRecord(offset, length)) {
+                return position;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean isValidRecord(final int offset, final int length) {
+        if (length <= 0 || length > capacity - offset - RECORD_HEADER_SIZE) {
+            return false;
+        }
+
+        final ByteBuffer payload = data.duplicate();
+        payload.position(offset + RECORD_HEADER_SIZE).limit(offset + RECORD_HEADER_SIZE + length);
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == data.getInt(offset + CHECKSUM_OFFSET);
+    }
+
+    /**
+     * Zeroes the data area, so no stale data gets mixed up with new records.
+     */
+    private void reset() {
+        final byte[] zeros = new byte[HEADER_PAGE_SIZE];
+        final ByteBuffer buf = data.duplicate();
+        while (buf.hasRemaining()) {
+            buf.put(zeros, 0, Math.min(zeros.length, buf.remaining()));
+        }
+
+        writePosition.set(readPosition);
+        header.putInt(MAGIC_OFFSET, MAGIC);
+        header.putInt(VERSION_OFFSET, VERSION);
+        header.putLong(CAPACITY_OFFSET, capacity);
+        header.putLong(READ_POSITION_OFFSET, readPosition);
+    }
+
+    /**
+     * Adds a record.
+     *
+     * @param payload the payload of the record
+     * @return {@code false} if the buffer is full
+     */
+    boolean offer(final byte[] payload) {
+        final int size = align(RECORD_HEADER_SIZE + payload.length);
+
+        long position;
+        int padding;
+        do {
+            position = writePosition.get();
+            final int offset = offset(position);
+            padding = offset + size > capacity ? capacity - offset : 0;
+            if (position + padding + size - readPosition > capacity) {
+                return false;
+            }
+        } while (!writePosition.compareAndSet(position, position + padding + size));
+
+        if (padding > 0) {
+            INT_HANDLE.setRelease(data, offset(position), -padding);
+            position += padding;
+        }
+
+        final int offset = offset(position);
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        data.putInt(offset + CHECKSUM_OFFSET, (int) crc.getValue());
+
+        final ByteBuffer buf = data.duplicate();
+        buf.position(offset + RECORD_HEADER_SIZE);
+        buf.put(payload);
+
+        INT_HANDLE.setRelease(data, offset, payload.length);
+
+        return true;
+    }
+
+    /**
+     * Hands all published records to the given consumer (in order), flushes the output and only then
+     * persists the read position and zeroes the consumed space. Must only be called by a single thread.
+     * <p>
+     * If the JVM crashes before the read position has been persisted, the records are handed to the
+     * consumer again after the buffer has been reopened - records flushed right before the crash are
+     * forwarded twice.
+     *
+     * @param consumer the consumer of the records
+     * @param output flushed before the read position is persisted
+     * @return the number of consumed records
+     * @throws IOException if the consumer throws an exception or flushing fails - no record is consumed
+     *     (the records are handed to the consumer again on the next drain)
+     */
+    int drain(final RecordConsumer consumer, final Flushable output) throws IOException {
+        int count = 0;
+        long position = readPosition;
+
+        // the consumed space is released after the flush - the data area can be consumed once per drain
+        while (position - readPosition < capacity) {
+            final int offset = offset(position);
+            final int length = (int) INT_HANDLE.getAcquire(data, offset);
+
+            final int size;
+            if (length < 0 && -length <= capacity - offset) {
+                // padding
+                size = -length;
+            } else if (length > 0 && length <= capacity - offset - RECORD_HEADER_SIZE) {
+                consume(offset, length, consumer);
+                size = align(RECORD_HEADER_SIZE + length);
+                count++;
+            } else {
+                // not yet published (or invalid after a crash)
+                break;
+            }
+
+            position += size;
+        }
+
+        if (position != readPosition) {
+            output.flush();
+            commit(position);
+        }
+
+        return count;
+    }
+
+    /**
+     * Zeroes the consumed space and persists the read position before releasing the space to the producers.
+     * The space is zeroed first, so a crash in between can't leave consumed records behind the read position.
+     */
+    private void commit(final long position) {
+        // records never wrap around the end of the data area, but the consumed space may
+        long zeroPosition = readPosition;
+        while (zeroPosition < position) {
+            final int offset = offset(zeroPosition);
+            final int size = (int) Math.min(position - zeroPosition, capacity - offset);
+            zero(offset, size);
+            zeroPosition += size;
+        }
+
+        header.putLong(READ_POSITION_OFFSET, position);
+        readPosition = position;
+    }
+
+    private void consume(final int offset, final int length, final RecordConsumer consumer) throws IOException {
+        if (readBuffer.length < length) {
+            readBuffer = new byte[Math.max(length, readBuffer.length * 2)];
+        }
+
+        final ByteBuffer buf = data.duplicate();
+        buf.position(offset + RECORD_HEADER_SIZE);
+        buf.get(readBuffer, 0, length);
+
+        final CRC32 crc = new CRC32();
+        crc.update(readBuffer, 0, length);
+        if ((int) crc.getValue() == data.getInt(offset + CHECKSUM_OFFSET)) {
+            consumer.accept(readBuffer, length);
+        } else {
+            corruptRecords++;
+        }
+    }
+
+    private void zero(final int offset, final int size) {
+        for (int i = offset; i < offset + size; i += Long.BYTES) {
+            data.putLong(i, 0);
+        }
+    }
+
+    /**
+     * Returns the number of records that have been skipped because of a checksum mismatch.
+     *
+     * @return the number of corrupt records
+     */
+    long getCorruptRecords() {
+        return corruptRecords;
+    }
+
+    /**
+     * Returns the number of records that have been skipped on replay, because they have been reserved, but
+     * never been published (or their length is invalid).
+     *
+     * @return the number of unpublished records
+     */
+    long getUnpublishedRecords() {
+        return unpublishedRecords;
+    }
+
+    private int offset(final long position) {
+        return (int) (position % capacity);
+    }
+
+    private static int align(final int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * Consumer of records.
+     */
+    @FunctionalInterface
+    interface RecordConsumer {
+
+        /**
+         * Consumes a record.
+         *
+         * @param buf the buffer containing the payload of the record (only valid during the invocation)
+         * @param length the length of the payload
+         * @throws IOException if an I/O error occurs
+         */
+        void accept(byte[] buf, int length) throws IOException;
+
+    }
+
+}
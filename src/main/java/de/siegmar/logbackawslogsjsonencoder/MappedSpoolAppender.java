@@ -0,0 +1,311 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.util.Duration;
+import ch.qos.logback.core.util.FileSize;
+
+/**
+ * Appender that spools encoded events in a memory-mapped ring buffer file, from which a background
+ * thread forwards them to the standard output or to a file.
+ * <p>
+ * As the spool file is shared with the operating system's page cache, spooled events survive if the JVM
+ * gets killed (e.g. by the OOM killer or a container stop). Events are only removed from the spool after
+ * the output has been flushed, so events that have not been forwarded are replayed on the next start
+ * (events flushed right before the kill may be forwarded twice). If the spool file exists with a different
+ * capacity, its capacity is kept to retain its pending events. The spool file is locked while the appender
+ * is started, so it can't be used by another process or appender at the same time.
+ * <p>
+ * Logging threads reserve space in the ring buffer without locking and only copy the encoded event.
+ * If the ring buffer is full, events are dropped.
+ *
+ * @param <E> the event type
+ */
+public class MappedSpoolAppender<E> extends UnsynchronizedAppenderBase<E> {
+
+    private static final long DEFAULT_CAPACITY = 64 * 1024 * 1024;
+    private static final long DEFAULT_DRAIN_INTERVAL_MILLIS = 10;
+    private static final long DEFAULT_MAX_FLUSH_TIME_MILLIS = 1000;
+    private static final int OUTPUT_BUFFER_SIZE = 65_536;
+
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    private Encoder<E> encoder;
+    private String file;
+    private String output;
+    private FileSize capacity = new FileSize(DEFAULT_CAPACITY);
+    private Duration drainInterval = Duration.buildByMilliseconds(DEFAULT_DRAIN_INTERVAL_MILLIS);
+    private Duration maxFlushTime = Duration.buildByMilliseconds(DEFAULT_MAX_FLUSH_TIME_MILLIS);
+
+    private MappedRingBuffer ringBuffer;
+    private OutputStream out;
+    private Thread drainer;
+    private volatile boolean running;
+
+    public Encoder<E> getEncoder() {
+        return encoder;
+    }
+
+    public void setEncoder(final Encoder<E> encoder) {
+        this.encoder = encoder;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * Sets the spool file.
+     *
+     * @param file the spool file
+     */
+    public void setFile(final String file) {
+        this.file = file;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * Sets the file the spooled events are forwarded (appended) to. Default: standard output.
+     *
+     * @param output the output file
+     */
+    public void setOutput(final String output) {
+        this.output = output;
+    }
+
+    public FileSize getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the capacity of the ring buffer. Default: 64 MB.
+     *
+     * @param capacity the capacity of the ring buffer
+     */
+    public void setCapacity(final FileSize capacity) {
+        this.capacity = capacity;
+    }
+
+    public Duration getDrainInterval() {
+        return drainInterval;
+    }
+
+    /**
+     * Sets the interval in which the ring buffer is checked for new events. Default: 10 milliseconds.
+     *
+     * @param drainInterval the drain interval
+     */
+    public void setDrainInterval(final Duration drainInterval) {
+        this.drainInterval = drainInterval;
+    }
+
+    public Duration getMaxFlushTime() {
+        return maxFlushTime;
+    }
+
+    /**
+     * Sets the maximum time to wait for spooled events to be forwarded on stop. Events that could not be
+     * forwarded remain in the spool file. Default: 1 second.
+     *
+     * @param maxFlushTime the maximum flush time
+     */
+    public void setMaxFlushTime(final Duration maxFlushTime) {
+        this.maxFlushTime = maxFlushTime;
+    }
+
+    /**
+     * Returns the number of events that have been dropped, as the ring buffer was full.
+     *
+     * @return the number of dropped events
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    @Override
+    public void start() {
+        if (encoder == null) {
+            addError("No encoder set for the appender named \"" + name + "\".");
+            return;
+        }
+        if (file == null) {
+            addError("No file set for the appender named \"" + name + "\".");
+            return;
+        }
+        if (capacity.getSize() > Integer.MAX_VALUE) {
+            addError("Capacity of the appender named \"" + name + "\" must not exceed 2 GB.");
+            return;
+        }
+
+        try {
+            out = openOutput();
+            writeIfPresent(encoder.headerBytes());
+
+            ringBuffer = MappedRingBuffer.open(Path.of(file), (int) capacity.getSize());
+            if (ringBuffer.getCapacity() != MappedRingBuffer.alignCapacity((int) capacity.getSize())) {
+                addWarn("Spool file " + file + " has a capacity of " + ringBuffer.getCapacity()
+                    + " bytes - keeping it to retain its pending events. Delete the spool file while the"
+                    + " application is stopped to apply the configured capacity.");
+            }
+
+            final int replayed = ringBuffer.replay(this::forward, out);
+            if (replayed > 0) {
+                addInfo("Replayed " + replayed + " events from spool file " + file);
+            }
+            if (ringBuffer.getUnpublishedRecords() > 0) {
+                addWarn("Skipped " + ringBuffer.getUnpublishedRecords() + " incompletely written events of"
+                    + " spool file " + file);
+            }
+        } catch (final IOException e) {
+            addError("Failed to open spool file " + file, e);
+            closeRingBuffer();
+            return;
+        }
+
+        running = true;
+        drainer = new Thread(this::drain, "MappedSpoolAppender-" + name);
+        drainer.setDaemon(true);
+        drainer.start();
+
+        super.start();
+    }
+
+    @SuppressWarnings("PMD.AvoidFileStream")
+    private OutputStream openOutput() throws IOException {
+        final OutputStream stream = output == null
+            ? new FileOutputStream(FileDescriptor.out)
+            : Files.newOutputStream(Path.of(output), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        return new BufferedOutputStream(stream, OUTPUT_BUFFER_SIZE);
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+
+        super.stop();
+        running = false;
+        LockSupport.unpark(drainer);
+
+        try {
+            drainer.join(maxFlushTime.getMilliseconds());
+            if (drainer.isAlive()) {
+                addWarn("Max flush time exceeded - remaining events stay in the spool file.");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final long dropped = droppedEvents.get();
+        if (dropped > 0) {
+            addWarn("Dropped " + dropped + " events as the spool was full.");
+        }
+    }
+
+    @Override
+    protected void append(final E event) {
+        final byte[] bytes = encoder.encode(event);
+        if (bytes != null && bytes.length > 0 && !ringBuffer.offer(bytes)) {
+            droppedEvents.incrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void drain() {
+        final long drainIntervalNanos = TimeUnit.MILLISECONDS.toNanos(drainInterval.getMilliseconds());
+        boolean failing = false;
+
+        while (running) {
+            try {
+                if (ringBuffer.drain(this::forward, out) == 0) {
+                    LockSupport.parkNanos(this, drainIntervalNanos);
+                }
+                failing = false;
+            } catch (final IOException | RuntimeException e) {
+                // report only once - the events remain in the spool and are retried
+                if (!failing) {
+                    addError("Failed to forward spooled events - retrying", e);
+                    failing = true;
+                }
+                LockSupport.parkNanos(this, drainIntervalNanos);
+            }
+        }
+
+        try {
+            ringBuffer.drain(this::forward, out);
+            writeIfPresent(encoder.footerBytes());
+            if (output == null) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        } catch (final IOException | RuntimeException e) {
+            addError("Failed to forward spooled events - remaining events stay in the spool file", e);
+        } finally {
+            closeRingBuffer();
+        }
+
+        if (ringBuffer.getCorruptRecords() > 0) {
+            addWarn("Skipped " + ringBuffer.getCorruptRecords() + " corrupt records of spool file " + file);
+        }
+    }
+
+    private void closeRingBuffer() {
+        if (ringBuffer == null) {
+            return;
+        }
+
+        try {
+            ringBuffer.close();
+        } catch (final IOException e) {
+            addWarn("Failed to release spool file " + file, e);
+        }
+    }
+
+    private void forward(final byte[] buf, final int length) throws IOException {
+        out.write(buf, 0, length);
+    }
+
+    private void writeIfPresent(final byte[] bytes) throws IOException {
+        if (bytes != null) {
+            out.write(bytes);
+        }
+    }
+
+}
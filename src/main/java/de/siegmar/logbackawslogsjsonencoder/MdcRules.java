@@ -0,0 +1,151 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compiled include/exclude, rename and top-level rules for MDC keys.
+ * <p>
+ * Patterns are either exact key names or prefixes (ending with {@code *}). Excludes take precedence
+ * over includes; if no includes are defined, all keys (that are not excluded) are included.
+ * Decisions are memoized per key, so the rules are evaluated only once per distinct key.
+ */
+final class MdcRules {
+
+    /**
+     * Decision for keys that must not be written.
+     */
+    static final Decision EXCLUDED = new Decision(null, false);
+
+    private static final int MAX_MEMOIZED_KEYS = 4096;
+    private static final String PREFIX_WILDCARD = "*";
+
+    private final Set<String> exactIncludes = new HashSet<>();
+    private final String[] prefixIncludes;
+    private final Set<String> exactExcludes = new HashSet<>();
+    private final String[] prefixExcludes;
+    private final Map<String, String> renames;
+    private final Set<String> topLevelKeys;
+    private final boolean hasIncludes;
+    private final ConcurrentMap<String, Decision> decisions = new ConcurrentHashMap<>();
+
+    MdcRules(final List<String> includes, final List<String> excludes, final Map<String, String> renames,
+             final Set<String> topLevelKeys) {
+        prefixIncludes = compile(includes, exactIncludes);
+        hasIncludes = !includes.isEmpty();
+        prefixExcludes = compile(excludes, exactExcludes);
+        this.renames = new HashMap<>(renames);
+        this.topLevelKeys = new HashSet<>(topLevelKeys);
+    }
+
+    private static String[] compile(final List<String> patterns, final Set<String> exact) {
+        final List<String> prefixes = new ArrayList<>();
+        for (final String pattern : patterns) {
+            if (pattern.endsWith(PREFIX_WILDCARD)) {
+                prefixes.add(pattern.substring(0, pattern.length() - PREFIX_WILDCARD.length()));
+            } else {
+                exact.add(pattern);
+            }
+        }
+        return prefixes.toArray(new String[0]);
+    }
+
+    /**
+     * Decides how the given key is written.
+     *
+     * @param key the MDC key
+     * @return the decision for the key
+     */
+    Decision decide(final String key) {
+        final Decision memoized = decisions.get(key);
+        if (memoized != null) {
+            return memoized;
+        }
+
+        final Decision decision = evaluate(key);
+        if (decisions.size() < MAX_MEMOIZED_KEYS) {
+            decisions.putIfAbsent(key, decision);
+        }
+
+        return decision;
+    }
+
+    private Decision evaluate(final String key) {
+        final boolean included = !hasIncludes || matches(key, exactIncludes, prefixIncludes);
+        if (!included || matches(key, exactExcludes, prefixExcludes)) {
+            return EXCLUDED;
+        }
+
+        return new Decision(renames.getOrDefault(key, key), topLevelKeys.contains(key));
+    }
+
+    @SuppressWarnings("checkstyle:ReturnCount")
+    private static boolean matches(final String key, final Set<String> exact, final String[] prefixes) {
+        if (exact.contains(key)) {
+            return true;
+        }
+
+        for (final String prefix : prefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static final class Decision {
+
+        private final String name;
+        private final boolean topLevel;
+
+        Decision(final String name, final boolean topLevel) {
+            this.name = name;
+            this.topLevel = topLevel;
+        }
+
+        /**
+         * Returns the (possibly renamed) name the key is written with.
+         *
+         * @return the name of the key
+         */
+        String getName() {
+            return name;
+        }
+
+        boolean isNested() {
+            return name != null && !topLevel;
+        }
+
+        boolean isTopLevel() {
+            return name != null && topLevel;
+        }
+
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * Pre-parsed SLF4J message template that formats its arguments directly into a JSON string value.
+ * <p>
+ * The output is identical to {@link MessageFormatter#arrayFormat(String, Object[])} (as used by
+ * {@code ILoggingEvent.getFormattedMessage()}) - escaped delimiters and a trailing throwable argument are
+ * treated the same way. All literal segments of the template are JSON-escaped once when the template
+ * is parsed.
+ */
+final class MessageTemplate {
+
+    private static final String DELIMITER = "{}";
+    private static final char ESCAPE_CHAR = '\\';
+    private static final String FAILED_TO_STRING = "[FAILED toString()]";
+
+    /**
+     * The JSON-escaped raw message.
+     */
+    private final String escapedMessage;
+
+    /**
+     * JSON-escaped literals preceding each (escaped or unescaped) delimiter.
+     */
+    private final String[] literals;
+
+    /**
+     * Flags, if the delimiter following the corresponding literal is a placeholder (or an escaped delimiter).
+     */
+    private final boolean[] placeholders;
+
+    /**
+     * Offsets (within {@link #escapedMessage}) of the remainders of the message after processing the
+     * corresponding number of delimiters.
+     */
+    private final int[] tailOffsets;
+
+    private MessageTemplate(final String message) {
+        escapedMessage = escape(message);
+
+        final List<String> literalList = new ArrayList<>();
+        final List<Boolean> placeholderList = new ArrayList<>();
+        final List<Integer> tailOffsetList = new ArrayList<>();
+        tailOffsetList.add(0);
+
+        int i = 0;
+        int tailOffset = 0;
+        for (int j = message.indexOf(DELIMITER); j != -1; j = message.indexOf(DELIMITER, i)) {
+            final int start = i;
+            if (isEscapedDelimiter(message, j)) {
+                if (isDoubleEscaped(message, j)) {
+                    // the escape char itself is escaped - drop one of them and keep the placeholder
+                    literalList.add(escape(message.substring(i, j - 1)));
+                    placeholderList.add(Boolean.TRUE);
+                    i = j + 2;
+                } else {
+                    // drop the escape char and keep the delimiter as literal text
+                    literalList.add(escape(message.substring(i, j - 1) + '{'));
+                    placeholderList.add(Boolean.FALSE);
+                    i = j + 1;
+                }
+            } else {
+                literalList.add(escape(message.substring(i, j)));
+                placeholderList.add(Boolean.TRUE);
+                i = j + 2;
+            }
+            // escaping is done char by char, so the escaped message is the concatenation of escaped segments
+            tailOffset += escape(message.substring(start, i)).length();
+            tailOffsetList.add(tailOffset);
+        }
+
+        literals = literalList.toArray(new String[0]);
+        placeholders = new boolean[placeholderList.size()];
+        for (int k = 0; k < placeholders.length; k++) {
+            placeholders[k] = placeholderList.get(k);
+        }
+        tailOffsets = new int[tailOffsetList.size()];
+        for (int k = 0; k < tailOffsets.length; k++) {
+            tailOffsets[k] = tailOffsetList.get(k);
+        }
+    }
+
+    static MessageTemplate parse(final String message) {
+        return new MessageTemplate(message);
+    }
+
+    private static boolean isEscapedDelimiter(final String message, final int delimiterIdx) {
+        return delimiterIdx > 0 && message.charAt(delimiterIdx - 1) == ESCAPE_CHAR;
+    }
+
+    private static boolean isDoubleEscaped(final String message, final int delimiterIdx) {
+        return delimiterIdx >= 2 && message.charAt(delimiterIdx - 2) == ESCAPE_CHAR;
+    }
+
+    private static String escape(final String str) {
+        final StringBuilder sb = new StringBuilder(str.length());
+        SimpleJsonEncoder.escapeString(str, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the JSON-escaped raw message.
+     *
+     * @param sb the writer to append to
+     */
+    void appendRaw(final StringBuilder sb) {
+        sb.append(escapedMessage);
+    }
+
+    /**
+     * Appends the JSON-escaped formatted message.
+     *
+     * @param sb the writer to append to
+     * @param args the arguments of the log event (may be {@code null})
+     */
+    void appendFormatted(final StringBuilder sb, final Object[] args) {
+        if (args == null) {
+            sb.append(escapedMessage);
+            return;
+        }
+
+        int argCount = args.length;
+        if (argCount > 0 && args[argCount - 1] instanceof Throwable) {
+            argCount--;
+        }
+
+        int usedArgs = 0;
+        int step = 0;
+        while (step < literals.length && usedArgs < argCount) {
+            sb.append(literals[step]);
+            if (placeholders[step]) {
+                appendArgument(sb, args[usedArgs++]);
+            }
+            step++;
+        }
+
+        sb.append(escapedMessage, tailOffsets[step], escapedMessage.length());
+    }
+
+    @SuppressWarnings({"checkstyle:IllegalCatch", "PMD.AvoidCatchingThrowable"})
+    private static void appendArgument(final StringBuilder sb, final Object arg) {
+        if (arg == null) {
+            sb.append("null");
+            return;
+        }
+
+        if (arg.getClass().isArray()) {
+            // arrays are rare in log arguments - let SLF4J handle their (deep) formatting
+            final String formatted = MessageFormatter.arrayFormat(DELIMITER, new Object[] {arg}).getMessage();
+            SimpleJsonEncoder.escapeString(formatted, sb);
+            return;
+        }
+
+        String str;
+        try {
+            str = String.valueOf(arg.toString());
+        } catch (final Throwable t) {
+            str = FAILED_TO_STRING;
+        }
+        SimpleJsonEncoder.escapeString(str, sb);
+    }
+
+}
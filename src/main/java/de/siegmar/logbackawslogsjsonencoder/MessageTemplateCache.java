@@ -0,0 +1,96 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded cache of parsed message templates.
+ * <p>
+ * The cache is direct-mapped (each template may only reside in the slot given by its hash code), so
+ * lookups are lock-free and the cache never grows. To keep frequently used templates cached while
+ * one-off messages (e.g. pre-concatenated ones) pass through, each slot gives its template a second
+ * chance: a template that has been hit since the last miss on its slot is only marked for replacement.
+ */
+final class MessageTemplateCache {
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param size the number of slots, must be a power of two
+     */
+    MessageTemplateCache(final int size) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of two: " + size);
+        }
+        entries = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the cached template for the given message or parses (and possibly caches) it.
+     *
+     * @param message the message to lookup
+     * @return the parsed template
+     */
+    MessageTemplate get(final String message) {
+        final int hash = message.hashCode();
+        final int slot = (hash ^ hash >>> Short.SIZE) & mask;
+
+        final Entry entry = entries.get(slot);
+        if (entry != null && entry.message.equals(message)) {
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.template;
+        }
+
+        final MessageTemplate template = MessageTemplate.parse(message);
+        if (entry == null || !entry.referenced) {
+            entries.compareAndSet(slot, entry, new Entry(message, template));
+        } else {
+            entry.referenced = false;
+        }
+
+        return template;
+    }
+
+    private static final class Entry {
+
+        private final String message;
+        private final MessageTemplate template;
+
+        /**
+         * Flag if the template has been hit since the last miss on its slot. Races are benign - at worst
+         * a template is replaced one miss early or late.
+         */
+        private volatile boolean referenced;
+
+        Entry(final String message, final MessageTemplate template) {
+            this.message = message;
+            this.template = template;
+        }
+
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+/**
+ * Signal that drives the degradation of the {@link AwsJsonLogEncoder} output under backpressure.
+ * <p>
+ * Implementations could, for example, observe the queue depth of an asynchronous appender or the recent
+ * write latency of the output stream. The signal is queried for every event, so implementations have to be
+ * thread-safe and cheap.
+ */
+@FunctionalInterface
+public interface PressureSignal {
+
+    /**
+     * Returns the degradation that has to be applied to the event currently being encoded.
+     *
+     * @return the current degradation (never {@code null})
+     */
+    Degradation getDegradation();
+
+}
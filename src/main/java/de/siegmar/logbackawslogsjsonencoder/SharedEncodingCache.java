@@ -0,0 +1,183 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.function.Supplier;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Per-thread cache of the last encoded event per encoder configuration (and degradation), shared by all
+ * encoders with an identical configuration.
+ * <p>
+ * When an event is dispatched to multiple appenders on the same thread, only the first encoder
+ * (of each configuration) encodes it - the others reuse its bytes. Events are weakly referenced and
+ * compared by identity, the bytes are softly referenced. As only the last event of a few configurations
+ * is kept per thread, the cache never grows.
+ * <p>
+ * The cache of a thread is only released by {@link #clear()} (on that thread) or when the thread
+ * terminates. Pooled threads that don't stop an encoder keep their (small) cache - and thereby the
+ * class of this library - until they terminate.
+ */
+final class SharedEncodingCache {
+
+    private static final int MAX_CONFIGURATIONS = 4;
+    private static final ThreadLocal<SharedEncodingCache> CACHE = ThreadLocal.withInitial(SharedEncodingCache::new);
+
+    private final Entry[] entries = new Entry[MAX_CONFIGURATIONS];
+    private int nextEviction;
+
+    private SharedEncodingCache() {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry();
+        }
+    }
+
+    /**
+     * Returns the bytes of the given event, if the last event encoded by the current thread (for the same
+     * configuration) is the same - otherwise encodes (and caches) it.
+     *
+     * @param event the event to encode
+     * @param key the key of the encoder configuration
+     * @param degradation the degradation applied to the event
+     * @param encoder the encoder to create the bytes if they aren't cached
+     * @return the encoded event - must not be modified
+     */
+    static byte[] get(final ILoggingEvent event, final Key key, final Degradation degradation,
+                      final Supplier<byte[]> encoder) {
+        final Entry entry = CACHE.get().entry(key, degradation);
+        if (entry.event != null && entry.event.get() == event) {
+            final byte[] cached = entry.encoded.get();
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final byte[] encoded = encoder.get();
+        entry.event = new WeakReference<>(event);
+        entry.encoded = new SoftReference<>(encoded);
+        return encoded;
+    }
+
+    /**
+     * Releases the cache of the current thread.
+     */
+    static void clear() {
+        CACHE.remove();
+    }
+
+    /**
+     * Returns the entry of the given configuration and degradation - encoders with the same configuration
+     * may apply different degradations to the same event.
+     */
+    private Entry entry(final Key key, final Degradation degradation) {
+        for (final Entry entry : entries) {
+            if (entry.degradation == degradation && key.equals(entry.key)) {
+                return entry;
+            }
+        }
+
+        final Entry entry = entries[nextEviction];
+        nextEviction = (nextEviction + 1) % entries.length;
+        entry.key = key;
+        entry.degradation = degradation;
+        entry.event = null;
+        entry.encoded = null;
+        return entry;
+    }
+
+    /**
+     * Key of an encoder configuration. The properties that affect the output are compared by value,
+     * the instances (custom mappers and value serializers) by class if they are stateless (have no
+     * instance fields, like non-capturing lambdas) - otherwise by identity, as instances of the same
+     * class may be configured differently.
+     */
+    static final class Key {
+
+        private final String properties;
+        private final Object[] instances;
+
+        Key(final String properties, final List<?> instances) {
+            this.properties = properties;
+            this.instances = new Object[instances.size()];
+            for (int i = 0; i < this.instances.length; i++) {
+                final Object instance = instances.get(i);
+                this.instances[i] = isStateless(instance.getClass()) ? instance.getClass() : instance;
+            }
+        }
+
+        private static boolean isStateless(final Class<?> type) {
+            for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+                for (final Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return properties.equals(key.properties) && sameInstances(instances, key.instances);
+        }
+
+        @SuppressWarnings("checkstyle:ReturnCount")
+        private static boolean sameInstances(final Object[] a, final Object[] b) {
+            if (a.length != b.length) {
+                return false;
+            }
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return properties.hashCode();
+        }
+
+    }
+
+    private static final class Entry {
+
+        private Key key;
+        private WeakReference<ILoggingEvent> event;
+        private Degradation degradation;
+        private SoftReference<byte[]> encoded;
+
+    }
+
+}
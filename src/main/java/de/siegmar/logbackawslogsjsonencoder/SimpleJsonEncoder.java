@@ -19,6 +19,7 @@
 
 package de.siegmar.logbackawslogsjsonencoder;
 
+import java.util.Arrays;
 import java.util.function.Consumer;
 
 /**
@@ -27,13 +28,21 @@ import java.util.function.Consumer;
 public class SimpleJsonEncoder {
 
     private static final int JSON_MAX_DEPTH = 8;
+    private static final int MAX_VALUE_DEPTH = 4;
     private static final char OPEN_BRACE = '{';
     private static final char CLOSE_BRACE = '}';
+    private static final char OPEN_BRACKET = '[';
+    private static final char CLOSE_BRACKET = ']';
     private static final char QUOTE = '"';
     private static final char COLON = ':';
     private static final char COMMA = ',';
     private static final String NULL = "null";
 
+    /**
+     * Control characters with a two character escape sequence.
+     */
+    private static final String SHORT_ESCAPES = "\b\f\n\r\t";
+
     /**
      * Underlying writer.
      */
@@ -46,8 +55,49 @@ public class SimpleJsonEncoder {
     private final boolean[] prependComma = new boolean[JSON_MAX_DEPTH];
     private int currentDepth;
 
+    /**
+     * Serializers used for values.
+     */
+    private final ValueSerializers valueSerializers;
+
+    /**
+     * Nesting depth of values (collections, maps, arrays) currently being written.
+     */
+    private int valueDepth;
+
+    /**
+     * Recorder for binary spool output - {@code null} for JSON output.
+     */
+    private final SpoolRecorder spoolRecorder;
+
+    /**
+     * State saved by {@link #mark()} - a negative length if no mark is set.
+     */
+    private int markLength = -1;
+    private int markDepth;
+    private boolean markPrependComma;
+    private int markValueDepth;
+
+    /**
+     * Number of UTF-8 bytes of the first {@code countedChars} characters of the writer - counted lazily
+     * by {@link #byteLength()} and dropped whenever the writer gets truncated.
+     */
+    private int countedChars;
+    private int countedBytes;
+
     SimpleJsonEncoder(final StringBuilder sb) {
+        this(sb, ValueSerializers.DEFAULT);
+    }
+
+    SimpleJsonEncoder(final StringBuilder sb, final ValueSerializers valueSerializers) {
+        this(sb, valueSerializers, null);
+    }
+
+    SimpleJsonEncoder(final StringBuilder sb, final ValueSerializers valueSerializers,
+                      final SpoolRecorder spoolRecorder) {
         this.sb = sb;
+        this.valueSerializers = valueSerializers;
+        this.spoolRecorder = spoolRecorder;
         sb.append(OPEN_BRACE);
     }
 
@@ -60,7 +110,19 @@ public class SimpleJsonEncoder {
      * @return this
      */
     public SimpleJsonEncoder append(final String key, final Object value) {
-        return appendKey(key).appendValue(value);
+        return appendKey(key).writeValue(value);
+    }
+
+    /**
+     * Append numeric field to this JSON object.
+     *
+     * @param key the key of the JSON element to add
+     * @param value the value of the JSON element to add
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    public SimpleJsonEncoder append(final String key, final long value) {
+        return appendKey(key).writeNumber(value);
     }
 
     /**
@@ -83,31 +145,332 @@ public class SimpleJsonEncoder {
         return this;
     }
 
+    /**
+     * Append pre-rendered fields (as created by {@link #renderFragment(Consumer)}) to this JSON object.
+     *
+     * @param fragment the pre-rendered fields to add
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    SimpleJsonEncoder appendFragment(final CharSequence fragment) {
+        if (fragment.length() > 0) {
+            prependComma();
+            sb.append(fragment);
+        }
+
+        return this;
+    }
+
+    /**
+     * Renders the fields added by the consumer (without the enclosing braces), so they can be
+     * cached and appended later via {@link #appendFragment(CharSequence)}.
+     *
+     * @param consumer a consumer to a {@code SimpleJsonEncoder} to add JSON body
+     *
+     * @return the rendered fields
+     */
+    static String renderFragment(final Consumer<SimpleJsonEncoder> consumer) {
+        final StringBuilder fragment = new StringBuilder();
+        consumer.accept(new SimpleJsonEncoder(fragment));
+        return fragment.substring(1);
+    }
+
+    /**
+     * Append string field to this JSON object whose (already escaped) value is written by the given writer.
+     *
+     * @param key the key of the JSON element to add
+     * @param escapedValueWriter a consumer to the underlying writer that appends the escaped string value
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    SimpleJsonEncoder appendString(final String key, final Consumer<StringBuilder> escapedValueWriter) {
+        appendKey(key);
+        sb.append(QUOTE);
+        escapedValueWriter.accept(sb);
+        sb.append(QUOTE);
+
+        return this;
+    }
+
+    /**
+     * Append key to this JSON object and return the underlying writer, so the caller can write
+     * the (already valid JSON) value without intermediate objects.
+     *
+     * @param key the key of the JSON element to add
+     *
+     * @return the underlying writer
+     */
+    StringBuilder appendRawValue(final String key) {
+        appendKey(key);
+        return sb;
+    }
+
     private SimpleJsonEncoder appendKey(final String key) {
+        prependComma();
+
+        if (spoolRecorder != null) {
+            spoolRecorder.key(sb, key != null ? key : NULL);
+            dropCountedBytes();
+            return this;
+        }
+
+        sb.append(QUOTE);
+        if (key == null) {
+            sb.append(NULL);
+        } else {
+            escapeString(key, sb);
+        }
+        sb.append(QUOTE).append(COLON);
+
+        return this;
+    }
+
+    private void prependComma() {
         if (prependComma[currentDepth]) {
             sb.append(COMMA);
         } else {
             prependComma[currentDepth] = true;
         }
+    }
 
-        final CharSequence keyVal = key == null ? NULL : escapeString(key);
-        sb.append(QUOTE).append(keyVal).append(QUOTE).append(COLON);
+    /**
+     * Write a value (without key) at the current position. The JSON representation depends on the
+     * {@link ValueSerializer} responsible for the value's type.
+     *
+     * @param value the value to write
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    public SimpleJsonEncoder writeValue(final Object value) {
+        if (value == null) {
+            writeNull();
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else {
+            valueSerializers.serialize(value, this);
+        }
 
         return this;
     }
 
-    private SimpleJsonEncoder appendValue(final Object value) {
+    /**
+     * Write a string value (without key) at the current position.
+     *
+     * @param value the value to write
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    public SimpleJsonEncoder writeString(final String value) {
         if (value == null) {
-            sb.append(NULL);
-        } else if (value instanceof Number) {
+            return writeNull();
+        }
+
+        if (spoolRecorder != null) {
+            spoolRecorder.string(sb, value);
+            dropCountedBytes();
+            return this;
+        }
+
+        sb.append(QUOTE);
+        escapeString(value, sb);
+        sb.append(QUOTE);
+
+        return this;
+    }
+
+    /**
+     * Write a number value (without key) at the current position.
+     *
+     * @param value the value to write
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    public SimpleJsonEncoder writeNumber(final long value) {
+        sb.append(value);
+        return this;
+    }
+
+    /**
+     * Write a number value (without key) at the current position. As JSON doesn't support
+     * NaN and infinity, those values are written as string.
+     *
+     * @param value the value to write
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    public SimpleJsonEncoder writeNumber(final double value) {
+        if (Double.isFinite(value)) {
+            sb.append(value);
+        } else {
+            sb.append(QUOTE).append(value).append(QUOTE);
+        }
+
+        return this;
+    }
+
+    /**
+     * Write a number value (without key) at the current position. The value is written by its
+     * {@code float} representation (e.g. {@code 0.1}), not widened to {@code double}. As JSON doesn't
+     * support NaN and infinity, those values are written as string.
+     *
+     * @param value the value to write
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    public SimpleJsonEncoder writeNumber(final float value) {
+        if (Float.isFinite(value)) {
             sb.append(value);
         } else {
-            sb.append(QUOTE).append(escapeString(value.toString())).append(QUOTE);
+            sb.append(QUOTE).append(value).append(QUOTE);
         }
 
         return this;
     }
 
+    /**
+     * Write a boolean value (without key) at the current position.
+     *
+     * @param value the value to write
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    public SimpleJsonEncoder writeBoolean(final boolean value) {
+        sb.append(value);
+        return this;
+    }
+
+    /**
+     * Write a null value (without key) at the current position.
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    public SimpleJsonEncoder writeNull() {
+        sb.append(NULL);
+        return this;
+    }
+
+    /**
+     * Write an array value (without key) at the current position.
+     *
+     * @param values the elements of the array
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    public SimpleJsonEncoder writeArray(final Iterable<?> values) {
+        sb.append(OPEN_BRACKET);
+        valueDepth++;
+
+        boolean first = true;
+        for (final Object value : values) {
+            if (first) {
+                first = false;
+            } else {
+                sb.append(COMMA);
+            }
+            writeValue(value);
+        }
+
+        valueDepth--;
+        sb.append(CLOSE_BRACKET);
+
+        return this;
+    }
+
+    /**
+     * Write an object value (without key) at the current position.
+     *
+     * @param consumer a consumer to this {@code SimpleJsonEncoder} to add JSON body
+     *
+     * @return A reference to this {@code SimpleJsonEncoder}
+     */
+    public SimpleJsonEncoder writeObject(final Consumer<SimpleJsonEncoder> consumer) {
+        if (currentDepth + 1 >= JSON_MAX_DEPTH) {
+            throw new IllegalStateException("Maximum JSON depth of " + JSON_MAX_DEPTH + " exceeded");
+        }
+
+        sb.append(OPEN_BRACE);
+        currentDepth++;
+        valueDepth++;
+
+        consumer.accept(this);
+
+        valueDepth--;
+        end();
+
+        return this;
+    }
+
+    /**
+     * Checks if nested values (collections, maps, arrays) have reached the maximum depth, so they
+     * should be written by their string representation.
+     *
+     * @return {@code true} if the maximum depth of nested values has been reached
+     */
+    boolean isValueDepthExceeded() {
+        return valueDepth >= MAX_VALUE_DEPTH;
+    }
+
+    /**
+     * Returns the number of UTF-8 bytes written by this encoder so far (the length of the equivalent
+     * JSON output in binary spool mode). Only the characters written since the last call are counted.
+     *
+     * @return the number of bytes written
+     */
+    int byteLength() {
+        countedBytes += utf8Length(sb, countedChars, sb.length());
+        countedChars = sb.length();
+        return spoolRecorder != null ? spoolRecorder.recordedLength() + countedBytes : countedBytes;
+    }
+
+    private void dropCountedBytes() {
+        countedChars = 0;
+        countedBytes = 0;
+    }
+
+    /**
+     * Marks the current position, so everything written afterwards can be discarded by {@link #reset()}.
+     * Only one mark is maintained - a subsequent call replaces the previous mark.
+     */
+    void mark() {
+        if (spoolRecorder != null) {
+            spoolRecorder.mark(sb);
+            dropCountedBytes();
+        }
+        markLength = sb.length();
+        markDepth = currentDepth;
+        markPrependComma = prependComma[currentDepth];
+        markValueDepth = valueDepth;
+    }
+
+    /**
+     * Discards everything written since the last {@link #mark()} - including unfinished objects - so
+     * the JSON output stays valid.
+     */
+    void reset() {
+        if (markLength < 0) {
+            throw new IllegalStateException("No mark set");
+        }
+        if (spoolRecorder != null) {
+            spoolRecorder.reset();
+        }
+        sb.setLength(markLength);
+        dropCountedBytes();
+        Arrays.fill(prependComma, markDepth + 1, JSON_MAX_DEPTH, false);
+        prependComma[markDepth] = markPrependComma;
+        currentDepth = markDepth;
+        valueDepth = markValueDepth;
+    }
+
+    /**
+     * Returns the underlying writer - for built-in serializers that write their value without
+     * intermediate objects.
+     *
+     * @return the underlying writer
+     */
+    StringBuilder writer() {
+        return sb;
+    }
+
     void end() {
         sb.append(CLOSE_BRACE);
         prependComma[currentDepth--] = false;
@@ -117,12 +480,10 @@ public class SimpleJsonEncoder {
      * Escape characters in string, if required per RFC-7159 (JSON).
      *
      * @param str string to be escaped.
-     * @return escaped string.
+     * @param sb the writer the escaped string is appended to.
      */
     @SuppressWarnings({"checkstyle:cyclomaticcomplexity", "PMD.ImplicitSwitchFallThrough"})
-    private static StringBuilder escapeString(final String str) {
-        final StringBuilder sb = new StringBuilder(str.length());
-
+    static void escapeString(final String str, final StringBuilder sb) {
         for (int i = 0; i < str.length(); i++) {
             final char ch = str.charAt(i);
             switch (ch) {
@@ -148,11 +509,86 @@ public class SimpleJsonEncoder {
                     sb.append("\\t");
                     break;
                 default:
-                    sb.append(ch < ' ' ? escapeCharacter(ch) : ch);
+                    if (ch < ' ') {
+                        sb.append(escapeCharacter(ch));
+                    } else {
+                        sb.append(ch);
+                    }
             }
         }
+    }
 
-        return sb;
+    /**
+     * Returns the number of UTF-8 bytes of the given string written as JSON string (escaped and quoted)
+     * - without actually encoding it.
+     *
+     * @param str the string ({@code null} is written as {@code null})
+     * @return the number of bytes
+     */
+    static int jsonLength(final String str) {
+        if (str == null) {
+            return NULL.length();
+        }
+
+        int length = 2;
+        int i = 0;
+        while (i < str.length()) {
+            final int codePoint = str.codePointAt(i);
+            length += jsonLength(codePoint);
+            i += Character.charCount(codePoint);
+        }
+        return length;
+    }
+
+    /**
+     * Returns the number of UTF-8 bytes of the given range of (already escaped) JSON text.
+     *
+     * @param text the text
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @return the number of bytes
+     */
+    @SuppressWarnings("checkstyle:magicnumber")
+    static int utf8Length(final CharSequence text, final int start, final int end) {
+        int length = 0;
+        int i = start;
+        while (i < end) {
+            final char ch = text.charAt(i++);
+            if (ch < 0x80) {
+                length++;
+            } else if (ch < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(ch) && i < end && Character.isLowSurrogate(text.charAt(i))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(ch)) {
+                // an unpaired surrogate is replaced by '?'
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    @SuppressWarnings("checkstyle:magicnumber")
+    private static int jsonLength(final int codePoint) {
+        final int length;
+        if (codePoint < ' ') {
+            length = SHORT_ESCAPES.indexOf(codePoint) >= 0 ? 2 : 6;
+        } else if (codePoint < 0x80) {
+            length = codePoint == QUOTE || codePoint == '\\' || codePoint == '/' ? 2 : 1;
+        } else if (codePoint < 0x800) {
+            length = 2;
+        } else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            length = 4;
+        } else if (Character.isSurrogate((char) codePoint)) {
+            // an unpaired surrogate is replaced by '?'
+            length = 1;
+        } else {
+            length = 3;
+        }
+        return length;
     }
 
     /**
@@ -0,0 +1,78 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded string dictionary of a spool segment. Each dictionary of an encoder has its own generation,
+ * so records can be resolved against the dictionary they have been encoded with.
+ */
+final class SpoolDictionary {
+
+    /**
+     * Marker return value of {@link #lookup(String)} for strings that are not part of the dictionary.
+     */
+    static final int UNKNOWN = -1;
+
+    private static final int MAX_ENTRIES = 4096;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final int generation;
+
+    SpoolDictionary(final int generation) {
+        this.generation = generation;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Looks up the id of the given string.
+     *
+     * @param str the string to lookup
+     * @return the id of the string or {@link #UNKNOWN}
+     */
+    int lookup(final String str) {
+        final Integer id = ids.get(str);
+        return id != null ? id : UNKNOWN;
+    }
+
+    /**
+     * Adds the given string to the dictionary.
+     *
+     * @param str the string to add
+     * @return the id of the new entry or {@link #UNKNOWN} if the dictionary is full or the string
+     *     has been added concurrently
+     */
+    int define(final String str) {
+        if (ids.size() >= MAX_ENTRIES) {
+            return UNKNOWN;
+        }
+
+        final int id = nextId.getAndIncrement();
+        return ids.putIfAbsent(str, id) == null ? id : UNKNOWN;
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants and helpers of the binary spool format.
+ * <p>
+ * A spool consists of segments. Each segment starts with a header (a zero byte, the magic bytes
+ * {@code AJSP}, the format version, the dictionary generation (varint) and the line separator) followed by
+ * records. Each record is prefixed by its length (varint), starts with the generation (varint) of the
+ * dictionary it has been encoded with and consists of tokens:
+ * <ul>
+ *     <li>{@link #DEFINE} - id, string: defines an entry of the segment's string dictionary</li>
+ *     <li>{@link #RAW} - string: JSON text that is written as is</li>
+ *     <li>{@link #KEY} / {@link #KEY_REF} - string / id: a key that is escaped, quoted and followed by a colon</li>
+ *     <li>{@link #STRING} / {@link #STRING_REF} - string / id: a value that is escaped and quoted</li>
+ * </ul>
+ * Strings are stored as length prefixed (varint) UTF-8. Dictionary entries may be defined after their first
+ * use (records of concurrent threads are not ordered), so readers need to collect the definitions of a
+ * dictionary before they can resolve references. As a record encoded with the previous dictionary may be
+ * written after the header of the next segment (e.g. by another thread during a file roll), records are
+ * resolved by their dictionary generation - a header only starts a new dictionary for its own generation.
+ */
+final class SpoolFormat {
+
+    static final int DEFINE = 1;
+    static final int RAW = 2;
+    static final int KEY = 3;
+    static final int KEY_REF = 4;
+    static final int STRING = 5;
+    static final int STRING_REF = 6;
+
+    static final int SEGMENT_START = 0;
+    static final byte[] MAGIC = {'A', 'J', 'S', 'P'};
+    static final int VERSION = 2;
+
+    private static final int VARINT_MASK = 0x7F;
+    private static final int VARINT_CONTINUATION = 0x80;
+    private static final int VARINT_SHIFT = 7;
+
+    private SpoolFormat() {
+    }
+
+    static byte[] header(final int generation, final String lineSeparator) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(SEGMENT_START);
+        out.writeBytes(MAGIC);
+        out.write(VERSION);
+        writeVarint(out, generation);
+        writeString(out, lineSeparator);
+        return out.toByteArray();
+    }
+
+    static void writeVarint(final ByteArrayOutputStream out, final int value) {
+        int remaining = value;
+        while ((remaining & ~VARINT_MASK) != 0) {
+            out.write(remaining & VARINT_MASK | VARINT_CONTINUATION);
+            remaining >>>= VARINT_SHIFT;
+        }
+        out.write(remaining);
+    }
+
+    static void writeString(final ByteArrayOutputStream out, final String str) {
+        final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    /**
+     * Reads a varint.
+     *
+     * @param in the stream to read from
+     * @return the value or {@code -1} if the end of the stream has been reached before the first byte
+     * @throws IOException if an I/O error occurs or the stream ends within the varint
+     */
+    static int readVarint(final InputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b = in.read();
+        if (b == -1) {
+            return -1;
+        }
+
+        while ((b & VARINT_CONTINUATION) != 0) {
+            value |= (b & VARINT_MASK) << shift;
+            shift += VARINT_SHIFT;
+            b = readByte(in);
+        }
+
+        return value | b << shift;
+    }
+
+    static int readByte(final InputStream in) throws IOException {
+        final int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Unexpected end of spool");
+        }
+        return b;
+    }
+
+    static String readString(final InputStream in) throws IOException {
+        final int length = readVarint(in);
+        if (length < 0) {
+            throw new EOFException("Unexpected end of spool");
+        }
+        final byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("Unexpected end of spool");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
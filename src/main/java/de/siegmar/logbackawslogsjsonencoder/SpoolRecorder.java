@@ -0,0 +1,192 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Set;
+
+/**
+ * Records the output of a {@link SimpleJsonEncoder} as binary spool record.
+ * <p>
+ * Keys and string values are recorded unescaped (keys and the values of some well-known fields via
+ * the dictionary), everything else is recorded as raw JSON text.
+ *
+ * @see SpoolFormat
+ */
+final class SpoolRecorder {
+
+    private static final int INITIAL_BUFFER_SIZE = 128;
+    private static final int KEY_OVERHEAD = ":".length();
+    private static final Set<String> DICTIONARY_VALUE_KEYS = Set.of("level", "thread", "logger");
+
+    private final SpoolDictionary dictionary;
+    private final TokenBuffer tokens = new TokenBuffer();
+    private String lastKey;
+    private int recordedLength;
+
+    /**
+     * Dictionary definitions written since the last mark - kept on reset, as other records may
+     * already refer to them.
+     */
+    private final ByteArrayOutputStream definesSinceMark = new ByteArrayOutputStream();
+    private int markPosition = -1;
+    private int markRecordedLength;
+    private String markLastKey;
+
+    SpoolRecorder(final SpoolDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Records a key.
+     *
+     * @param pending raw JSON text written before the key - gets flushed
+     * @param key the key
+     */
+    void key(final StringBuilder pending, final String key) {
+        flush(pending);
+        lastKey = key;
+        recordedLength += SimpleJsonEncoder.jsonLength(key) + KEY_OVERHEAD;
+        writeDictionaryString(SpoolFormat.KEY, SpoolFormat.KEY_REF, key);
+    }
+
+    /**
+     * Records a string value.
+     *
+     * @param pending raw JSON text written before the value - gets flushed
+     * @param value the value
+     */
+    void string(final StringBuilder pending, final String value) {
+        flush(pending);
+        recordedLength += SimpleJsonEncoder.jsonLength(value);
+        if (lastKey != null && DICTIONARY_VALUE_KEYS.contains(lastKey)) {
+            writeDictionaryString(SpoolFormat.STRING, SpoolFormat.STRING_REF, value);
+        } else {
+            tokens.write(SpoolFormat.STRING);
+            SpoolFormat.writeString(tokens, value);
+        }
+    }
+
+    private void writeDictionaryString(final int inlineToken, final int refToken, final String str) {
+        int id = dictionary.lookup(str);
+        if (id == SpoolDictionary.UNKNOWN) {
+            id = dictionary.define(str);
+            if (id != SpoolDictionary.UNKNOWN) {
+                writeDefine(tokens, id, str);
+                if (markPosition >= 0) {
+                    writeDefine(definesSinceMark, id, str);
+                }
+            }
+        }
+
+        if (id == SpoolDictionary.UNKNOWN) {
+            tokens.write(inlineToken);
+            SpoolFormat.writeString(tokens, str);
+        } else {
+            tokens.write(refToken);
+            SpoolFormat.writeVarint(tokens, id);
+        }
+    }
+
+    private static void writeDefine(final ByteArrayOutputStream out, final int id, final String str) {
+        out.write(SpoolFormat.DEFINE);
+        SpoolFormat.writeVarint(out, id);
+        SpoolFormat.writeString(out, str);
+    }
+
+    /**
+     * Marks the current position, so everything recorded afterwards can be discarded by
+     * {@link #reset()}.
+     *
+     * @param pending raw JSON text written before - gets flushed
+     */
+    void mark(final StringBuilder pending) {
+        flush(pending);
+        markPosition = tokens.size();
+        markRecordedLength = recordedLength;
+        markLastKey = lastKey;
+        definesSinceMark.reset();
+    }
+
+    /**
+     * Discards everything recorded since the last {@link #mark(StringBuilder)} - except dictionary
+     * definitions. The caller is responsible for discarding pending text.
+     */
+    void reset() {
+        if (markPosition < 0) {
+            throw new IllegalStateException("No mark set");
+        }
+
+        tokens.truncate(markPosition);
+        tokens.writeBytes(definesSinceMark.toByteArray());
+        recordedLength = markRecordedLength;
+        lastKey = markLastKey;
+    }
+
+    private void flush(final StringBuilder pending) {
+        if (pending.length() > 0) {
+            recordedLength += SimpleJsonEncoder.utf8Length(pending, 0, pending.length());
+            tokens.write(SpoolFormat.RAW);
+            SpoolFormat.writeString(tokens, pending.toString());
+            pending.setLength(0);
+        }
+    }
+
+    /**
+     * Returns the number of UTF-8 bytes of the JSON text recorded so far - excluding pending text.
+     *
+     * @return the number of bytes of the recorded JSON text
+     */
+    int recordedLength() {
+        return recordedLength;
+    }
+
+    /**
+     * Finishes the record.
+     *
+     * @param pending raw JSON text written after the last key/value - gets flushed
+     * @return the length prefixed record
+     */
+    byte[] finish(final StringBuilder pending) {
+        flush(pending);
+
+        final ByteArrayOutputStream generation = new ByteArrayOutputStream(Integer.BYTES + 1);
+        SpoolFormat.writeVarint(generation, dictionary.getGeneration());
+
+        final ByteArrayOutputStream record = new ByteArrayOutputStream(tokens.size() + 2 * (Integer.BYTES + 1));
+        SpoolFormat.writeVarint(record, generation.size() + tokens.size());
+        record.writeBytes(generation.toByteArray());
+        record.writeBytes(tokens.toByteArray());
+        return record.toByteArray();
+    }
+
+    private static final class TokenBuffer extends ByteArrayOutputStream {
+
+        TokenBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        void truncate(final int size) {
+            count = size;
+        }
+
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transcodes a binary spool (as written by {@link AwsJsonLogEncoder} with binary spool mode enabled)
+ * to JSON lines - byte-identical to the output of the encoder in JSON mode.
+ * <p>
+ * Usage: {@code java -cp ... de.siegmar.logbackawslogsjsonencoder.SpoolTranscoder <spool> [<output>]}
+ * (writes to standard output if no output file is given).
+ */
+public final class SpoolTranscoder {
+
+    private SpoolTranscoder() {
+    }
+
+    /**
+     * Command line entry point. Exits with status 2 on invalid arguments.
+     *
+     * @param args the spool file and the optional output file
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings({"checkstyle:UncommentedMain", "PMD.AvoidFileStream", "PMD.CloseResource",
+        "PMD.DoNotTerminateVM"})
+    public static void main(final String[] args) throws IOException {
+        final PrintStream err = new PrintStream(new FileOutputStream(FileDescriptor.err), true,
+            StandardCharsets.UTF_8);
+
+        if (args.length == 0 || args.length > 2) {
+            err.println("Usage: SpoolTranscoder <spool> [<output>]");
+            System.exit(2);
+            return;
+        }
+
+        final long skipped;
+        try (OutputStream out = new BufferedOutputStream(args.length == 2
+            ? Files.newOutputStream(Path.of(args[1]))
+            : new FileOutputStream(FileDescriptor.out))) {
+            skipped = transcode(Path.of(args[0]), out);
+        }
+
+        if (skipped > 0) {
+            err.println("Skipped " + skipped + " incomplete record(s)");
+        }
+    }
+
+    /**
+     * Transcodes the given spool to JSON lines.
+     * <p>
+     * Records referencing dictionary entries that have not been defined within their dictionary generation
+     * and a truncated last record (e.g. after a crash) are skipped. A truncated header at the end of the spool
+     * is ignored.
+     *
+     * @param spool the spool file to transcode
+     * @param out the stream to write the JSON lines to
+     * @return the number of skipped records
+     * @throws IOException if an I/O error occurs or the spool is malformed
+     */
+    public static long transcode(final Path spool, final OutputStream out) throws IOException {
+        // Dictionary entries may be defined after their first use, so collect them first
+        final List<Map<Integer, String>> dictionaries = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(spool))) {
+            new SpoolReader(in, dictionaries, null).read();
+        }
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(spool))) {
+            return new SpoolReader(in, dictionaries, out).read();
+        }
+    }
+
+    private static final class SpoolReader {
+
+        private final InputStream in;
+        private final List<Map<Integer, String>> dictionaries;
+        private final OutputStream out;
+        private final StringBuilder line = new StringBuilder();
+        private final Map<Integer, Integer> generations = new HashMap<>();
+        private int allocated;
+        private String lineSeparator = System.lineSeparator();
+        private long skipped;
+
+        /**
+         * @param in the spool to read
+         * @param dictionaries the dictionaries of all generations (in order of their allocation)
+         * @param out the stream to write to - {@code null} to collect the dictionaries
+         */
+        SpoolReader(final InputStream in, final List<Map<Integer, String>> dictionaries,
+                    final OutputStream out) {
+            this.in = in;
+            this.dictionaries = dictionaries;
+            this.out = out;
+        }
+
+        long read() throws IOException {
+            for (int length = readLength(); length != -1; length = readLength()) {
+                if (length == SpoolFormat.SEGMENT_START) {
+                    if (!readHeader()) {
+                        break;
+                    }
+                    continue;
+                }
+
+                final byte[] record = in.readNBytes(length);
+                if (record.length < length) {
+                    skipped++;
+                    break;
+                }
+
+                processRecord(record);
+            }
+
+            return skipped;
+        }
+
+        private int readLength() throws IOException {
+            try {
+                return SpoolFormat.readVarint(in);
+            } catch (final EOFException e) {
+                // length prefix of the last record has been truncated
+                skipped++;
+                return -1;
+            }
+        }
+
+        /**
+         * Reads a segment header and starts a new dictionary for its generation.
+         *
+         * @return {@code false} if the header has been truncated
+         */
+        private boolean readHeader() throws IOException {
+            final byte[] magic = in.readNBytes(SpoolFormat.MAGIC.length);
+            if (magic.length < SpoolFormat.MAGIC.length) {
+                return false;
+            }
+            if (!Arrays.equals(magic, SpoolFormat.MAGIC)) {
+                throw new IOException("Invalid spool header");
+            }
+
+            try {
+                final int version = SpoolFormat.readByte(in);
+                if (version != SpoolFormat.VERSION) {
+                    throw new IOException("Unsupported spool version " + version);
+                }
+
+                final int generation = SpoolFormat.readVarint(in);
+                lineSeparator = SpoolFormat.readString(in);
+                allocate(generation);
+                return true;
+            } catch (final EOFException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Starts a new dictionary for the given generation. Both passes allocate in the same order, so the
+         * second pass resolves to the dictionaries collected by the first one.
+         */
+        private int allocate(final int generation) {
+            final int index = allocated++;
+            if (out == null) {
+                dictionaries.add(new HashMap<>());
+            }
+            generations.put(generation, index);
+            return index;
+        }
+
+        private Map<Integer, String> dictionary(final int generation) {
+            Integer index = generations.get(generation);
+            if (index == null) {
+                // records written before the first header (if any) or after a lost header
+                index = allocate(generation);
+            }
+            return dictionaries.get(index);
+        }
+
+        private void processRecord(final byte[] record) throws IOException {
+            line.setLength(0);
+
+            if (decode(new ByteArrayInputStream(record)) && out != null) {
+                line.append(lineSeparator);
+                out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        @SuppressWarnings("checkstyle:CyclomaticComplexity")
+        private boolean decode(final ByteArrayInputStream record) throws IOException {
+            final Map<Integer, String> dictionary = dictionary(SpoolFormat.readVarint(record));
+            boolean resolved = true;
+
+            while (record.available() > 0) {
+                final int token = record.read();
+                switch (token) {
+                    case SpoolFormat.DEFINE:
+                        final int id = SpoolFormat.readVarint(record);
+                        final String str = SpoolFormat.readString(record);
+                        if (out == null) {
+                            dictionary.put(id, str);
+                        }
+                        break;
+                    case SpoolFormat.RAW:
+                        line.append(SpoolFormat.readString(record));
+                        break;
+                    case SpoolFormat.KEY:
+                        appendKey(SpoolFormat.readString(record));
+                        break;
+                    case SpoolFormat.KEY_REF:
+                        resolved &= appendKey(dictionary.get(SpoolFormat.readVarint(record)));
+                        break;
+                    case SpoolFormat.STRING:
+                        appendString(SpoolFormat.readString(record));
+                        break;
+                    case SpoolFormat.STRING_REF:
+                        resolved &= appendString(dictionary.get(SpoolFormat.readVarint(record)));
+                        break;
+                    default:
+                        throw new IOException("Invalid spool token " + token);
+                }
+            }
+
+            if (!resolved && out != null) {
+                skipped++;
+            }
+
+            return resolved;
+        }
+
+        private boolean appendKey(final String key) {
+            if (key == null) {
+                return false;
+            }
+
+            appendString(key);
+            line.append(':');
+            return true;
+        }
+
+        private boolean appendString(final String str) {
+            if (str == null) {
+                return false;
+            }
+
+            line.append('"');
+            SimpleJsonEncoder.escapeString(str, line);
+            line.append('"');
+            return true;
+        }
+
+    }
+
+}
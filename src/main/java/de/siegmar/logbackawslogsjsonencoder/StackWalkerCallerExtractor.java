@@ -0,0 +1,170 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Extracts the caller of a logging statement by walking only the topmost frames of the current
+ * thread's stack. As this only works on the logging thread, it must not be used for events that
+ * are encoded asynchronously.
+ * <p>
+ * Like Logback's {@code CallerData}, the caller is the first frame after the Logback logger that doesn't
+ * belong to a framework package (including the ones configured in the logger context) - so appenders,
+ * encoders and wrappers invoked by the logger are never reported. If the stack contains no Logback logger
+ * (e.g. the encoder is invoked directly), the first frame outside the framework packages and this
+ * library is used.
+ * <p>
+ * The rendered caller is cached per call site.
+ */
+final class StackWalkerCallerExtractor {
+
+    private static final int MAX_CACHED_CALL_SITES = 4096;
+    private static final StackWalker WALKER = StackWalker.getInstance();
+    private static final String[] FRAMEWORK_PACKAGES = {
+        "java.", "jdk.", "sun.", "ch.qos.logback.", "org.slf4j.",
+    };
+    private static final String LOGGER_CLASS = "ch.qos.logback.classic.Logger";
+    private static final String LIBRARY_PACKAGE = StackWalkerCallerExtractor.class.getPackageName() + ".";
+
+    private final ConcurrentMap<CallSite, String> cache = new ConcurrentHashMap<>();
+    private final Function<StackTraceElement, String> renderer;
+    private final List<String> frameworkPackages;
+
+    /**
+     * Creates a new extractor.
+     *
+     * @param renderer the renderer of the caller
+     * @param frameworkPackages additional framework packages (as configured in the logger context)
+     */
+    StackWalkerCallerExtractor(final Function<StackTraceElement, String> renderer,
+                               final List<String> frameworkPackages) {
+        this.renderer = renderer;
+        this.frameworkPackages = frameworkPackages;
+    }
+
+    /**
+     * Extracts the caller of the current logging statement.
+     *
+     * @return the rendered caller or {@code null} if no caller could be found
+     */
+    String extract() {
+        return WALKER.walk(this::findCaller)
+            .map(this::render)
+            .orElse(null);
+    }
+
+    private Optional<StackWalker.StackFrame> findCaller(final Stream<StackWalker.StackFrame> frames) {
+        StackWalker.StackFrame fallback = null;
+        boolean afterLogger = false;
+
+        for (final Iterator<StackWalker.StackFrame> it = frames.iterator(); it.hasNext();) {
+            final StackWalker.StackFrame frame = it.next();
+            final String className = frame.getClassName();
+
+            if (LOGGER_CLASS.equals(className)) {
+                afterLogger = true;
+            } else if (afterLogger) {
+                if (!isFrameworkClass(className)) {
+                    return Optional.of(frame);
+                }
+            } else if (fallback == null && !isFrameworkClass(className) && !className.startsWith(LIBRARY_PACKAGE)) {
+                fallback = frame;
+            }
+        }
+
+        return Optional.ofNullable(fallback);
+    }
+
+    private String render(final StackWalker.StackFrame frame) {
+        final CallSite callSite = new CallSite(frame);
+
+        final String cached = cache.get(callSite);
+        if (cached != null) {
+            return cached;
+        }
+
+        final String rendered = renderer.apply(frame.toStackTraceElement());
+        if (cache.size() < MAX_CACHED_CALL_SITES) {
+            cache.putIfAbsent(callSite, rendered);
+        }
+
+        return rendered;
+    }
+
+    private boolean isFrameworkClass(final String className) {
+        for (final String frameworkPackage : FRAMEWORK_PACKAGES) {
+            if (className.startsWith(frameworkPackage)) {
+                return true;
+            }
+        }
+
+        if (frameworkPackages != null) {
+            for (final String frameworkPackage : frameworkPackages) {
+                if (className.startsWith(frameworkPackage)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static final class CallSite {
+
+        private final String className;
+        private final String methodName;
+        private final int byteCodeIndex;
+
+        CallSite(final StackWalker.StackFrame frame) {
+            className = frame.getClassName();
+            methodName = frame.getMethodName();
+            byteCodeIndex = frame.getByteCodeIndex();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CallSite)) {
+                return false;
+            }
+            final CallSite callSite = (CallSite) o;
+            return byteCodeIndex == callSite.byteCodeIndex
+                && className.equals(callSite.className)
+                && methodName.equals(callSite.methodName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(className, methodName, byteCodeIndex);
+        }
+
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+/**
+ * Output formats of the {@code timestamp} field.
+ */
+public enum TimestampFormat {
+
+    /**
+     * Milliseconds since epoch (as number) - e.g. {@code 1698595093642}.
+     */
+    EPOCH_MILLIS,
+
+    /**
+     * Microseconds since epoch (as number) - e.g. {@code 1698595093642725}.
+     */
+    EPOCH_MICROS,
+
+    /**
+     * ISO-8601 in UTC with millisecond precision (as string) - e.g. {@code 2023-10-29T15:58:13.642Z}.
+     */
+    ISO_8601
+
+}
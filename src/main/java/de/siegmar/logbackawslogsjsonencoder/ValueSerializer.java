@@ -0,0 +1,48 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+/**
+ * Serializer for values of a specific type (e.g. values of key-value pairs).
+ * <p>
+ * The serializer is responsible for values of the given type and all of its subtypes - unless a more
+ * specific serializer has been registered earlier. Serializers are resolved once per class.
+ *
+ * @param <T> the type of values this serializer is responsible for
+ */
+public interface ValueSerializer<T> {
+
+    /**
+     * Returns the type of values this serializer is responsible for.
+     *
+     * @return the type of values
+     */
+    Class<T> getType();
+
+    /**
+     * Writes the JSON representation of the value by using the {@code write*} methods
+     * of the given encoder (e.g. {@link SimpleJsonEncoder#writeString(String)}).
+     *
+     * @param value the value to serialize (never {@code null})
+     * @param json the encoder to write the value to
+     */
+    void serialize(T value, SimpleJsonEncoder json);
+
+}
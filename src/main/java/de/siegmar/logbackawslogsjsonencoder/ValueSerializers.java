@@ -0,0 +1,184 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import java.lang.reflect.Array;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Registry of value serializers. Custom serializers take precedence over the built-in ones
+ * (for strings, numbers, booleans, characters, UUIDs, instants, maps, collections and arrays).
+ * All other values (e.g. enums) are written by their string representation.
+ * The serializer for a class is resolved once and cached.
+ */
+final class ValueSerializers {
+
+    static final ValueSerializers DEFAULT = new ValueSerializers(List.of());
+
+    private static final char QUOTE = '"';
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final IsoTimestampFormatter ISO_FORMATTER = new IsoTimestampFormatter();
+
+    private static final BiConsumer<Object, SimpleJsonEncoder> STRING = (v, json) -> json.writeString(v.toString());
+    private static final BiConsumer<Object, SimpleJsonEncoder> INTEGRAL =
+        (v, json) -> json.writeNumber(((Number) v).longValue());
+    private static final BiConsumer<Object, SimpleJsonEncoder> FLOATING_POINT =
+        (v, json) -> json.writeNumber(((Number) v).doubleValue());
+    private static final BiConsumer<Object, SimpleJsonEncoder> FLOAT = (v, json) -> json.writeNumber((Float) v);
+
+    private static final Map<Class<?>, BiConsumer<Object, SimpleJsonEncoder>> EXACT_TYPES = Map.ofEntries(
+        Map.entry(Integer.class, INTEGRAL),
+        Map.entry(Long.class, INTEGRAL),
+        Map.entry(Short.class, INTEGRAL),
+        Map.entry(Byte.class, INTEGRAL),
+        Map.entry(AtomicInteger.class, INTEGRAL),
+        Map.entry(AtomicLong.class, INTEGRAL),
+        Map.entry(Double.class, FLOATING_POINT),
+        Map.entry(Float.class, FLOAT),
+        Map.entry(Boolean.class, (v, json) -> json.writeBoolean((Boolean) v)),
+        Map.entry(Character.class, STRING),
+        Map.entry(UUID.class, (v, json) -> writeUuid((UUID) v, json.writer())),
+        Map.entry(Instant.class, (v, json) -> ISO_FORMATTER.format((Instant) v, json.writer()))
+    );
+
+    private static final List<Map.Entry<Class<?>, BiConsumer<Object, SimpleJsonEncoder>>> SUPER_TYPES = List.of(
+        Map.entry(CharSequence.class, STRING),
+        // other numbers (e.g. BigDecimal) are written by their string representation
+        Map.entry(Number.class, (v, json) -> json.writer().append(v)),
+        Map.entry(Map.class, nested((v, json) -> json.writeObject(o ->
+            ((Map<?, ?>) v).forEach((key, value) -> o.append(String.valueOf(key), value))))),
+        // not Iterable - e.g. Path and SQLException are iterables, but written by their string representation
+        Map.entry(Collection.class, nested((v, json) -> json.writeArray((Collection<?>) v)))
+    );
+
+    private static final BiConsumer<Object, SimpleJsonEncoder> ARRAY = nested((v, json) -> json.writeArray(asList(v)));
+
+    private final List<ValueSerializer<?>> customSerializers;
+
+    private final ClassValue<BiConsumer<Object, SimpleJsonEncoder>> serializers = new ClassValue<>() {
+        @Override
+        protected BiConsumer<Object, SimpleJsonEncoder> computeValue(final Class<?> type) {
+            return resolve(type);
+        }
+    };
+
+    ValueSerializers(final List<ValueSerializer<?>> customSerializers) {
+        this.customSerializers = List.copyOf(customSerializers);
+    }
+
+    void serialize(final Object value, final SimpleJsonEncoder json) {
+        serializers.get(value.getClass()).accept(value, json);
+    }
+
+    @SuppressWarnings("unchecked")
+    private BiConsumer<Object, SimpleJsonEncoder> resolve(final Class<?> type) {
+        for (final ValueSerializer<?> customSerializer : customSerializers) {
+            if (customSerializer.getType().isAssignableFrom(type)) {
+                final ValueSerializer<Object> serializer = (ValueSerializer<Object>) customSerializer;
+                return serializer::serialize;
+            }
+        }
+
+        return resolveBuiltIn(type);
+    }
+
+    private static BiConsumer<Object, SimpleJsonEncoder> resolveBuiltIn(final Class<?> type) {
+        BiConsumer<Object, SimpleJsonEncoder> serializer = EXACT_TYPES.get(type);
+
+        if (serializer == null && type.isArray()) {
+            serializer = ARRAY;
+        }
+
+        for (int i = 0; serializer == null && i < SUPER_TYPES.size(); i++) {
+            final Map.Entry<Class<?>, BiConsumer<Object, SimpleJsonEncoder>> entry = SUPER_TYPES.get(i);
+            if (entry.getKey().isAssignableFrom(type)) {
+                serializer = entry.getValue();
+            }
+        }
+
+        return serializer != null ? serializer : STRING;
+    }
+
+    /**
+     * Wraps a serializer of nested values, so that values beyond the maximum depth are written by their
+     * string representation (this also protects against self-referencing values).
+     */
+    private static BiConsumer<Object, SimpleJsonEncoder> nested(
+        final BiConsumer<Object, SimpleJsonEncoder> serializer) {
+        return (v, json) -> {
+            if (json.isValueDepthExceeded()) {
+                json.writeString(v.toString());
+            } else {
+                serializer.accept(v, json);
+            }
+        };
+    }
+
+    /**
+     * Creates a list view of an array (of any component type).
+     */
+    private static List<Object> asList(final Object array) {
+        return new AbstractList<>() {
+            @Override
+            public Object get(final int index) {
+                return Array.get(array, index);
+            }
+
+            @Override
+            public int size() {
+                return Array.getLength(array);
+            }
+        };
+    }
+
+    @SuppressWarnings("checkstyle:MagicNumber")
+    private static void writeUuid(final UUID uuid, final StringBuilder sb) {
+        final long msb = uuid.getMostSignificantBits();
+        final long lsb = uuid.getLeastSignificantBits();
+
+        sb.append(QUOTE);
+        appendHex(sb, msb >>> 32, 8);
+        sb.append('-');
+        appendHex(sb, msb >>> 16, 4);
+        sb.append('-');
+        appendHex(sb, msb, 4);
+        sb.append('-');
+        appendHex(sb, lsb >>> 48, 4);
+        sb.append('-');
+        appendHex(sb, lsb, 12);
+        sb.append(QUOTE);
+    }
+
+    @SuppressWarnings("checkstyle:MagicNumber")
+    private static void appendHex(final StringBuilder sb, final long value, final int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            sb.append(HEX_DIGITS[(int) (value >>> shift) & 0xF]);
+        }
+    }
+
+}
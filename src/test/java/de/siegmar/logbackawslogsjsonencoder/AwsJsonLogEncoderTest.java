@@ -21,22 +21,33 @@ package de.siegmar.logbackawslogsjsonencoder;
 
 import static net.javacrumbs.jsonunit.assertj.JsonAssertions.assertThatJson;
 import static net.javacrumbs.jsonunit.assertj.JsonAssertions.json;
+import static org.assertj.core.api.Assertions.assertThat;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import org.junit.jupiter.api.Test;
 import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
 import org.slf4j.event.KeyValuePair;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.util.Duration;
 
 @SuppressWarnings("PMD.AvoidDuplicateLiterals")
 class AwsJsonLogEncoderTest {
@@ -91,6 +102,30 @@ class AwsJsonLogEncoderTest {
             .isEqualTo(json("{'timestamp': '${json-unit.any-number}'}"));
     }
 
+    @Test
+    void timestampEpochMicros() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeTimestamp(true);
+            c.setTimestampFormat(TimestampFormat.EPOCH_MICROS);
+        });
+        assertThatJson(dummyLog(e -> e.setInstant(Instant.ofEpochSecond(1_698_595_093L, 642_725_001)), null))
+            .isEqualTo(json("{'timestamp': 1698595093642725}"));
+        assertThatJson(dummyLog(e -> e.setTimeStamp(1_698_595_093_042L), null))
+            .isEqualTo(json("{'timestamp': 1698595093042000}"));
+    }
+
+    @Test
+    void timestampIso() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeTimestamp(true);
+            c.setTimestampFormat(TimestampFormat.ISO_8601);
+        });
+        assertThatJson(dummyLog(e -> e.setTimeStamp(1_698_595_093_042L), null))
+            .isEqualTo(json("{'timestamp': '2023-10-29T15:58:13.042Z'}"));
+        assertThatJson(dummyLog(e -> e.setTimeStamp(1_698_595_093_642L), null))
+            .isEqualTo(json("{'timestamp': '2023-10-29T15:58:13.642Z'}"));
+    }
+
     @Test
     void nanoseconds() {
         setupAllDisabledEncoder(c -> c.setIncludeNanoseconds(true));
@@ -140,6 +175,28 @@ class AwsJsonLogEncoderTest {
             .isEqualTo(json("{'rawMessage': 'message {}'}"));
     }
 
+    @Test
+    void directMessageFormatting() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeFormattedMessage(true);
+            c.setIncludeRawMessage(true);
+            c.setDirectMessageFormatting(true);
+        });
+        assertThatJson(fullLog())
+            .isEqualTo(json("{'message': 'message 1', 'rawMessage': 'message {}'}"));
+
+        final List<LoggingEvent> events = List.of(
+            newEvent("escaped \\{} and {}", "a"),
+            newEvent("double escaped \\\\{} and {}", "a", "b"),
+            newEvent("surplus {} and {}", "a", "b", "c"),
+            newEvent("missing {}, {} and {}", "a"),
+            newEvent("failed {}", "a", new IllegalStateException("Example Exception")));
+        for (final LoggingEvent event : events) {
+            assertThatJson(new String(encoder.encode(event), StandardCharsets.UTF_8))
+                .node("message").isString().isEqualTo(event.getFormattedMessage());
+        }
+    }
+
     @Test
     void stacktrace() {
         setupAllDisabledEncoder(c -> c.setIncludeStacktrace(true));
@@ -187,6 +244,24 @@ class AwsJsonLogEncoderTest {
             .isEqualTo(json("{'markers': {'foo': 1, 'bar': 1}}"));
     }
 
+    @Test
+    void markerReferences() {
+        setupAllDisabledEncoder(c -> c.setIncludeMarker(true));
+
+        final Marker audit = MarkerFactory.getDetachedMarker("audit");
+        audit.add(MarkerFactory.getDetachedMarker("security"));
+
+        assertThatJson(dummyLog(e -> e.addMarker(audit), null))
+            .isEqualTo(json("{'markers': {'audit': 1, 'security': 1}}"));
+        assertThatJson(dummyLog(e -> e.addMarker(audit), null))
+            .isEqualTo(json("{'markers': {'audit': 1, 'security': 1}}"));
+
+        // markers are mutable - changed references must not be served from the cache
+        audit.add(MarkerFactory.getDetachedMarker("compliance"));
+        assertThatJson(dummyLog(e -> e.addMarker(audit), null))
+            .isEqualTo(json("{'markers': {'audit': 1, 'security': 1, 'compliance': 1}}"));
+    }
+
     @Test
     void mdc() {
         setupAllDisabledEncoder(c -> c.setIncludeMdc(true));
@@ -194,6 +269,75 @@ class AwsJsonLogEncoderTest {
             .isEqualTo(json("{'mdc': {'foo': 'bar', 'baz': null}}"));
     }
 
+    @Test
+    void mdcCached() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeMdc(true);
+            c.setCacheMdc(true);
+        });
+
+        final Map<String, String> mdcMap = new LinkedHashMap<>();
+        mdcMap.put("foo", "bar");
+
+        assertThatJson(dummyLog(e -> e.setMDCPropertyMap(mdcMap), null))
+            .isEqualTo(json("{'mdc': {'foo': 'bar'}}"));
+        assertThatJson(dummyLog(e -> e.setMDCPropertyMap(mdcMap), null))
+            .isEqualTo(json("{'mdc': {'foo': 'bar'}}"));
+        assertThatJson(dummyLog(e -> e.setMDCPropertyMap(Map.of("foo", "baz")), null))
+            .isEqualTo(json("{'mdc': {'foo': 'baz'}}"));
+    }
+
+    @Test
+    void mdcRules() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeMdc(true);
+            c.addMdcInclude("trace*");
+            c.addMdcInclude("user");
+            c.addMdcInclude("X-B3-TraceId");
+            c.addMdcExclude("traceFlags");
+            c.addMdcRename("X-B3-TraceId:traceId");
+            c.addMdcTopLevelKey("X-B3-TraceId");
+        });
+
+        final Map<String, String> mdcMap = new LinkedHashMap<>();
+        mdcMap.put("X-B3-TraceId", "abc");
+        mdcMap.put("traceState", "s");
+        mdcMap.put("traceFlags", "01");
+        mdcMap.put("user", "alice");
+        mdcMap.put("otel.scope", "x");
+
+        assertThatJson(dummyLog(e -> e.setMDCPropertyMap(mdcMap), null))
+            .isEqualTo(json("{'mdc': {'traceState': 's', 'user': 'alice'}, 'traceId': 'abc'}"));
+        assertThatJson(dummyLog(e -> e.setMDCPropertyMap(Map.of("otel.scope", "x")), null))
+            .isEqualTo("{}");
+        assertThatJson(dummyLog(e -> e.setMDCPropertyMap(Map.of("X-B3-TraceId", "abc")), null))
+            .isEqualTo(json("{'traceId': 'abc'}"));
+    }
+
+    @Test
+    @SuppressWarnings("checkstyle:avoidescapedunicodecharacters")
+    void mdcKeyStatistics() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeMdc(true);
+            c.setCollectMdcKeyStatistics(true);
+            c.addMdcExclude("secret");
+        });
+
+        final Map<String, String> mdcMap = new LinkedHashMap<>();
+        mdcMap.put("foo", "bar");
+        mdcMap.put("secret", "x");
+        mdcMap.put("user", "J\u00fcrgen \"J\"");
+        dummyLog(e -> e.setMDCPropertyMap(mdcMap), null);
+        dummyLog(e -> e.setMDCPropertyMap(mdcMap), null);
+
+        // UTF-8 bytes of the JSON encoded key and value (without the separating comma)
+        final byte[] user = "\"user\":\"J\u00fcrgen \\\"J\\\"\"".getBytes(StandardCharsets.UTF_8);
+        assertThat(encoder.getMdcKeyStatistics())
+            .containsEntry("foo", (long) "\"foo\":\"bar\"".length() * 2)
+            .containsEntry("secret", 0L)
+            .containsEntry("user", (long) user.length * 2);
+    }
+
     @Test
     void keyValues() {
         setupAllDisabledEncoder(c -> c.setIncludeKeyValues(true));
@@ -201,6 +345,31 @@ class AwsJsonLogEncoderTest {
             .isEqualTo(json("{'keyValues': {'foo': 'bar', 'bar': null, 'null': 'bar'}}"));
     }
 
+    @Test
+    void valueSerializer() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeKeyValues(true);
+            c.addValueSerializer(new ValueSerializer<Level>() {
+                @Override
+                public Class<Level> getType() {
+                    return Level.class;
+                }
+
+                @Override
+                public void serialize(final Level value, final SimpleJsonEncoder json) {
+                    json.writeNumber(value.toInt());
+                }
+            });
+        });
+
+        assertThatJson(dummyLog(e -> e.setKeyValuePairs(List.of(
+            new KeyValuePair("level", Level.INFO),
+            new KeyValuePair("flag", true),
+            new KeyValuePair("list", List.of(1, 2))
+        )), null))
+            .isEqualTo(json("{'keyValues': {'level': 20000, 'flag': true, 'list': [1, 2]}}"));
+    }
+
     @Test
     void caller() {
         setupAllDisabledEncoder(c -> c.setIncludeCaller(true));
@@ -216,6 +385,81 @@ class AwsJsonLogEncoderTest {
             .isEqualTo(json(expectedJson));
     }
 
+    @Test
+    void callerStackWalker() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeCaller(true);
+            c.setCallerStackWalker(true);
+        });
+
+        final List<String> lines = new ArrayList<>();
+        final UnsynchronizedAppenderBase<ILoggingEvent> appender = new UnsynchronizedAppenderBase<>() {
+            @Override
+            protected void append(final ILoggingEvent event) {
+                lines.add(new String(encoder.encode(event), StandardCharsets.UTF_8));
+            }
+        };
+
+        final LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+        final Logger logger = lc.getLogger(LOGGER_NAME + ".callerStackWalker");
+        appender.setContext(lc);
+        appender.start();
+        logger.addAppender(appender);
+        logger.setAdditive(false);
+        try {
+            logger.info("message");
+        } finally {
+            logger.detachAppender(appender);
+        }
+
+        //language=JSON5
+        final String expectedJson =
+            "{caller: {"
+            + "    file: 'AwsJsonLogEncoderTest.java',"
+            + "    line: '${json-unit.any-number}',"
+            + "    class: 'de.siegmar.logbackawslogsjsonencoder.AwsJsonLogEncoderTest',"
+            + "    method: 'callerStackWalker'"
+            + "}}";
+        assertThat(lines).hasSize(1);
+        assertThatJson(lines.get(0))
+            .isEqualTo(json(expectedJson));
+    }
+
+    @Test
+    void callerMinLevelAlias() {
+        encoder.addFieldMinLevel("caller:INFO");
+        encoder.setCallerMinLevel(Level.WARN);
+        assertThat(encoder.getFieldMinLevels()).containsEntry("caller", Level.WARN);
+
+        encoder.setCallerMinLevel(null);
+        assertThat(encoder.getFieldMinLevels()).doesNotContainKey("caller");
+        assertThat(encoder.getCallerMinLevel()).isNull();
+    }
+
+    @Test
+    void callerMinLevel() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeCaller(true);
+            c.setCallerMinLevel(Level.WARN);
+        });
+        assertThatJson(fullLog()).isEqualTo("{}");
+        assertThatJson(dummyLog(e -> e.setLevel(Level.WARN), null))
+            .node("caller").isPresent();
+    }
+
+    @Test
+    void fieldMinLevel() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeFormattedMessage(true);
+            c.setIncludeRawMessage(true);
+            c.addFieldMinLevel("rawMessage:WARN");
+        });
+        assertThatJson(fullLog())
+            .isEqualTo(json("{'message': 'message 1'}"));
+        assertThatJson(dummyLog(e -> e.setLevel(Level.WARN), null))
+            .isEqualTo(json("{'message': 'message 1', 'rawMessage': 'message {}'}"));
+    }
+
     @Test
     void staticFields() {
         setupAllDisabledEncoder(c -> c.addStaticField("foo:bar"));
@@ -230,6 +474,304 @@ class AwsJsonLogEncoderTest {
             .isEqualTo(json("{'custom': 'bar'}"));
     }
 
+    @Test
+    void customMapperErrorPolicySkip() {
+        setupAllDisabledEncoder(c -> {
+            c.setCustomMapperErrorPolicy(CustomMapperErrorPolicy.SKIP);
+            c.addCustomMapper((json, event) -> json.appendObject("failing", j -> {
+                j.append("foo", "bar");
+                throw new IllegalStateException("failed");
+            }));
+            c.addCustomMapper(new MyCustomMapper());
+        });
+
+        assertThatJson(fullLog())
+            .isEqualTo(json("{'custom': 'bar'}"));
+        assertThatJson(fullLog())
+            .isEqualTo(json("{'custom': 'bar'}"));
+
+        final CustomMapperStatistics statistics = encoder.getCustomMapperStatistics().get(0);
+        assertThat(statistics.getErrors()).isEqualTo(2);
+        assertThat(statistics.isDisabled()).isFalse();
+    }
+
+    @Test
+    void customMapperErrorPolicySkipStackOverflow() {
+        setupAllDisabledEncoder(c -> {
+            c.setCustomMapperErrorPolicy(CustomMapperErrorPolicy.SKIP);
+            c.addCustomMapper((json, event) -> {
+                throw new StackOverflowError();
+            });
+        });
+
+        assertThatJson(fullLog()).isEqualTo(json("{}"));
+        assertThat(encoder.getCustomMapperStatistics().get(0).getErrors()).isEqualTo(1);
+    }
+
+    @Test
+    void customMapperErrorPolicyDisable() {
+        setupAllDisabledEncoder(c -> {
+            c.setCustomMapperErrorPolicy(CustomMapperErrorPolicy.DISABLE);
+            c.addCustomMapper((json, event) -> {
+                throw new IllegalStateException("failed");
+            });
+        });
+
+        assertThatJson(fullLog()).isEqualTo(json("{}"));
+        assertThatJson(fullLog()).isEqualTo(json("{}"));
+
+        final CustomMapperStatistics statistics = encoder.getCustomMapperStatistics().get(0);
+        assertThat(statistics.getInvocations()).isEqualTo(1);
+        assertThat(statistics.getErrors()).isEqualTo(1);
+        assertThat(statistics.isDisabled()).isTrue();
+    }
+
+    @Test
+    void customMapperTimeBudget() {
+        setupAllDisabledEncoder(c -> {
+            c.setCustomMapperTimeBudget(Duration.buildByMilliseconds(1));
+            c.setCustomMapperMaxBudgetViolations(1);
+            c.addCustomMapper((json, event) -> {
+                sleep(10);
+                json.append("slow", true);
+            });
+        });
+
+        assertThatJson(fullLog()).isEqualTo(json("{'slow': true}"));
+        assertThatJson(fullLog()).isEqualTo(json("{}"));
+        assertThat(encoder.getCustomMapperStatistics().get(0).isDisabled()).isTrue();
+    }
+
+    @Test
+    void customMapperConsecutiveBudgetViolations() {
+        final AtomicInteger invocations = new AtomicInteger();
+        setupAllDisabledEncoder(c -> {
+            c.setCustomMapperTimeBudget(Duration.buildByMilliseconds(1));
+            c.setCustomMapperMaxBudgetViolations(2);
+            c.addCustomMapper((json, event) -> {
+                // only the second invocation is within the budget
+                if (invocations.getAndIncrement() != 1) {
+                    sleep(10);
+                }
+            });
+        });
+
+        fullLog();
+        fullLog();
+        fullLog();
+        assertThat(encoder.getCustomMapperStatistics().get(0).isDisabled()).isFalse();
+
+        fullLog();
+        final CustomMapperStatistics statistics = encoder.getCustomMapperStatistics().get(0);
+        assertThat(statistics.isDisabled()).isTrue();
+        assertThat(statistics.getBudgetViolations()).isEqualTo(3);
+    }
+
+    @Test
+    void customMapperStatistics() {
+        setupAllDisabledEncoder(c -> {
+            c.setCustomMapperSampleInterval(1);
+            c.addCustomMapper(new MyCustomMapper());
+        });
+
+        fullLog();
+        fullLog();
+
+        final CustomMapperStatistics statistics = encoder.getCustomMapperStatistics().get(0);
+        assertThat(statistics.getMapper()).isEqualTo(MyCustomMapper.class.getName());
+        assertThat(statistics.getInvocations()).isEqualTo(2);
+        assertThat(statistics.getSampledInvocations()).isEqualTo(2);
+        assertThat(statistics.getAverageBytes()).isEqualTo("\"custom\":\"bar\"".length());
+    }
+
+    @Test
+    @SuppressWarnings("checkstyle:avoidescapedunicodecharacters")
+    void customMapperStatisticsCountsBytes() {
+        setupAllDisabledEncoder(c -> {
+            c.setCustomMapperSampleInterval(1);
+            c.addCustomMapper((json, event) -> json.append("custom", "b\u00e4r"));
+        });
+
+        fullLog();
+
+        final CustomMapperStatistics statistics = encoder.getCustomMapperStatistics().get(0);
+        assertThat(statistics.getAverageBytes())
+            .isEqualTo("\"custom\":\"b\u00e4r\"".getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void shareEncodedEvents() {
+        final AwsJsonLogEncoder identical = new AwsJsonLogEncoder();
+        final AwsJsonLogEncoder different = new AwsJsonLogEncoder();
+        different.addStaticField("foo:bar");
+        for (final AwsJsonLogEncoder e : List.of(encoder, identical, different)) {
+            e.setShareEncodedEvents(true);
+            e.start();
+        }
+
+        final LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+        final Logger logger = lc.getLogger(LOGGER_NAME);
+        final LoggingEvent event = new LoggingEvent(LOGGER_NAME, logger, Level.INFO, "message", null, null);
+
+        final byte[] encoded = encoder.encode(event);
+        assertThat(different.encode(event)).isNotSameAs(encoded);
+        assertThat(identical.encode(event)).isSameAs(encoded);
+
+        final LoggingEvent nextEvent = new LoggingEvent(LOGGER_NAME, logger, Level.INFO, "message", null, null);
+        assertThat(identical.encode(nextEvent)).isNotSameAs(encoded);
+    }
+
+    @Test
+    void shareEncodedEventsByCustomMapperIdentity() {
+        final BiConsumer<SimpleJsonEncoder, ILoggingEvent> sharedMapper = statefulMapper("bar");
+        final AwsJsonLogEncoder sameMapper = new AwsJsonLogEncoder();
+        final AwsJsonLogEncoder otherMapper = new AwsJsonLogEncoder();
+        encoder.addCustomMapper(sharedMapper);
+        sameMapper.addCustomMapper(sharedMapper);
+        otherMapper.addCustomMapper(statefulMapper("baz"));
+        startSharing(encoder, sameMapper, otherMapper);
+
+        final LoggingEvent event = newEvent();
+        final byte[] encoded = encoder.encode(event);
+        assertThat(otherMapper.encode(event)).isNotSameAs(encoded);
+        assertThat(sameMapper.encode(event)).isSameAs(encoded);
+    }
+
+    @Test
+    void shareEncodedEventsByStatelessCustomMapperClass() {
+        final AwsJsonLogEncoder sameClass = new AwsJsonLogEncoder();
+        final AwsJsonLogEncoder otherClass = new AwsJsonLogEncoder();
+        encoder.addCustomMapper(new MyCustomMapper());
+        sameClass.addCustomMapper(new MyCustomMapper());
+        otherClass.addCustomMapper((json, e) -> json.append("custom", "bar"));
+        startSharing(encoder, sameClass, otherClass);
+
+        final LoggingEvent event = newEvent();
+        final byte[] encoded = encoder.encode(event);
+        assertThat(otherClass.encode(event)).isNotSameAs(encoded);
+        assertThat(sameClass.encode(event)).isSameAs(encoded);
+    }
+
+    @Test
+    void shareEncodedEventsByDegradation() {
+        final AwsJsonLogEncoder sameDegradation = new AwsJsonLogEncoder();
+        final AwsJsonLogEncoder otherDegradation = new AwsJsonLogEncoder();
+        encoder.setPressureSignal(() -> Degradation.ESSENTIAL_ONLY);
+        sameDegradation.setPressureSignal(() -> Degradation.ESSENTIAL_ONLY);
+        startSharing(encoder, sameDegradation, otherDegradation);
+
+        final LoggingEvent event = newEvent();
+        final byte[] encoded = encoder.encode(event);
+        assertThat(otherDegradation.encode(event)).isNotSameAs(encoded);
+        assertThat(sameDegradation.encode(event)).isSameAs(encoded);
+    }
+
+    @Test
+    void shareEncodedEventsNotWithGuardedCustomMappers() {
+        final MyCustomMapper sharedMapper = new MyCustomMapper();
+        final AwsJsonLogEncoder guarded = new AwsJsonLogEncoder();
+        for (final AwsJsonLogEncoder e : List.of(encoder, guarded)) {
+            e.addCustomMapper(sharedMapper);
+            e.setCustomMapperErrorPolicy(CustomMapperErrorPolicy.DISABLE);
+        }
+        startSharing(encoder, guarded);
+
+        final LoggingEvent event = newEvent();
+        assertThat(guarded.encode(event)).isNotSameAs(encoder.encode(event));
+    }
+
+    @Test
+    void duplicateSuppression() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeFormattedMessage(true);
+            c.setDuplicateSuppressionWindow(Duration.buildBySeconds(10));
+        });
+
+        final long now = System.currentTimeMillis();
+        assertThatJson(dummyLog(e -> e.setTimeStamp(now), null))
+            .isEqualTo(json("{'message': 'message 1'}"));
+        assertThat(dummyLog(e -> e.setTimeStamp(now + 1000), null)).isEmpty();
+        assertThat(dummyLog(e -> e.setTimeStamp(now + 2000), null)).isEmpty();
+        assertThatJson(dummyLog(e -> e.setTimeStamp(now + 10_000), null))
+            .isEqualTo(json("{'message': 'message 1', 'repeated': 2}"));
+    }
+
+    @Test
+    void duplicateSuppressionSummaryOfExpiredWindow() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeFormattedMessage(true);
+            c.setIncludeLoggerName(true);
+            c.setDuplicateSuppressionWindow(Duration.buildBySeconds(10));
+            c.setDuplicateSuppressionMaxKeys(1);
+        });
+
+        final long now = System.currentTimeMillis();
+        dummyLog(e -> e.setTimeStamp(now), null);
+        assertThat(dummyLog(e -> e.setTimeStamp(now + 1000), null)).isEmpty();
+
+        // the expired window is reported along with the next event (of another logger) and evicted
+        final String[] lines = dummyLog(e -> {
+            e.setTimeStamp(now + 20_000);
+            e.setLoggerName("other");
+        }, null).split(System.lineSeparator());
+
+        assertThat(lines).hasSize(2);
+        assertThatJson(lines[0])
+            .isEqualTo(json("{'logger': 'other', 'message': 'message 1'}"));
+        assertThatJson(lines[1])
+            .isEqualTo(json("{'logger': '" + LOGGER_NAME + "', 'message': 'message 1', 'repeated': 1}"));
+    }
+
+    @Test
+    void duplicateSuppressionSummaryInFooter() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeFormattedMessage(true);
+            c.setDuplicateSuppressionWindow(Duration.buildBySeconds(10));
+        });
+
+        final long now = System.currentTimeMillis();
+        dummyLog(e -> e.setTimeStamp(now), null);
+        assertThat(dummyLog(e -> e.setTimeStamp(now + 1000), null)).isEmpty();
+        assertThat(dummyLog(e -> e.setTimeStamp(now + 2000), null)).isEmpty();
+
+        assertThatJson(new String(encoder.footerBytes(), StandardCharsets.UTF_8))
+            .isEqualTo(json("{'message': 'message 1', 'repeated': 2}"));
+        assertThat(encoder.footerBytes()).isNull();
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    @Test
+    void degradation() {
+        setupAllEnabledEncoder(c -> c.setPressureSignal(() -> Degradation.ROOT_CAUSE_ONLY));
+
+        final String logMsg;
+        try {
+            throw new RuntimeException(new IllegalArgumentException("Example Exception"));
+        } catch (final RuntimeException e) {
+            logMsg = fullLog(e);
+        }
+
+        assertThatJson(logMsg).and(
+            j -> j.node("caller").isAbsent(),
+            j -> j.node("stacktrace").isAbsent(),
+            j -> j.node("rootCause.class").isEqualTo("java.lang.IllegalArgumentException"),
+            j -> j.node("mdc").isPresent(),
+            j -> j.node("degraded").isEqualTo(2)
+        );
+    }
+
+    @Test
+    void degradationEssentialOnly() {
+        setupAllDisabledEncoder(c -> {
+            c.setIncludeMdc(true);
+            c.setPressureSignal(() -> Degradation.ESSENTIAL_ONLY);
+        });
+
+        assertThat(fullLog()).isEmpty();
+        assertThatJson(dummyLog(e -> e.setLevel(Level.INFO), null))
+            .isEqualTo(json("{'degraded': 3}"));
+    }
+
     @Test
     void complex() {
         setupAllEnabledEncoder(c -> c.addStaticField("foo:bar"));
@@ -272,6 +814,30 @@ class AwsJsonLogEncoderTest {
         assertThatJson(fullLog()).isEqualTo(json(expectedJson));
     }
 
+    @Test
+    @SuppressWarnings("checkstyle:avoidescapedunicodecharacters")
+    void batch() {
+        setupAllDisabledEncoder(c -> c.setIncludeFormattedMessage(true));
+
+        final LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+        final Logger logger = lc.getLogger(LOGGER_NAME);
+        final List<LoggingEvent> events = List.of(
+            new LoggingEvent(LOGGER_NAME, logger, Level.INFO, "first \u00e4", null, null),
+            new LoggingEvent(LOGGER_NAME, logger, Level.INFO, "second", null, null)
+        );
+
+        final EncodedBatch batch = encoder.encodeBatch(events);
+        assertThat(batch.lineCount()).isEqualTo(2);
+
+        for (int i = 0; i < batch.lineCount(); i++) {
+            final String line = new String(batch.buffer(), batch.lineOffset(i), batch.lineLength(i),
+                StandardCharsets.UTF_8);
+            assertThat(line).isEqualTo(new String(encoder.encode(events.get(i)), StandardCharsets.UTF_8));
+        }
+
+        assertThat(batch.size()).isEqualTo(batch.lineOffset(1) + batch.lineLength(1));
+    }
+
     private void setupAllDisabledEncoder(final Consumer<AwsJsonLogEncoder> customize) {
         encoder.setIncludeTimestamp(false);
         encoder.setIncludeNanoseconds(false);
@@ -347,4 +913,34 @@ class AwsJsonLogEncoderTest {
         return new String(encoder.encode(event), StandardCharsets.UTF_8);
     }
 
+    private static void sleep(final long millis) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (System.nanoTime() < deadline) {
+            LockSupport.parkNanos(deadline - System.nanoTime());
+        }
+    }
+
+    private static void startSharing(final AwsJsonLogEncoder... encoders) {
+        for (final AwsJsonLogEncoder e : encoders) {
+            e.setShareEncodedEvents(true);
+            e.start();
+        }
+    }
+
+    private static BiConsumer<SimpleJsonEncoder, ILoggingEvent> statefulMapper(final String value) {
+        return (json, event) -> json.append("custom", value);
+    }
+
+    private static LoggingEvent newEvent() {
+        final LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+        final Logger logger = lc.getLogger(LOGGER_NAME);
+        return new LoggingEvent(LOGGER_NAME, logger, Level.INFO, "message", null, null);
+    }
+
+    private static LoggingEvent newEvent(final String message, final Object... args) {
+        final LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+        final Logger logger = lc.getLogger(LOGGER_NAME);
+        return new LoggingEvent(LOGGER_NAME, logger, Level.INFO, message, null, args);
+    }
+
 }
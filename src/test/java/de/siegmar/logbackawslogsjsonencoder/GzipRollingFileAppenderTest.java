@@ -0,0 +1,206 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.util.FileSize;
+
+class GzipRollingFileAppenderTest {
+
+    private static final String LOGGER_NAME = GzipRollingFileAppenderTest.class.getCanonicalName();
+    private static final int EVENTS = 2000;
+
+    private final LoggerContext lc = new LoggerContext();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rollBySize() throws IOException {
+        final GzipRollingFileAppender<ILoggingEvent> appender = newAppender();
+        appendEvents(appender);
+        appender.stop();
+
+        final List<Path> files = files();
+        assertThat(files.size()).isGreaterThan(1);
+
+        final List<String> lines = new ArrayList<>();
+        for (final Path file : files) {
+            lines.addAll(readLines(file));
+        }
+        assertThat(lines).hasSize(EVENTS);
+    }
+
+    @Test
+    void recoverTruncatedFile() throws IOException {
+        final GzipRollingFileAppender<ILoggingEvent> appender = newAppender();
+        appender.setMaxFileSize(new FileSize(Long.MAX_VALUE));
+        appendEvents(appender);
+        appender.stop();
+
+        final Path file = activeFile();
+        final long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 10);
+        }
+
+        assertThat(GzipRecovery.recover(file)).isPositive();
+        assertThat(GzipRecovery.recover(file)).isZero();
+        final List<String> lines = readLines(file);
+        assertThat(lines.size()).isBetween(1, EVENTS - 1);
+        assertThat(lines).allSatisfy(line -> assertThat(line).startsWith("{").endsWith("}"));
+    }
+
+    @Test
+    void rollLeftoverFileOnStart() throws IOException {
+        final GzipRollingFileAppender<ILoggingEvent> appender = newAppender();
+        appender.setMaxFileSize(new FileSize(Long.MAX_VALUE));
+        appendEvents(appender);
+        appender.stop();
+
+        final Path file = activeFile();
+        final long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 10);
+        }
+
+        final GzipRollingFileAppender<ILoggingEvent> restarted = newAppender();
+        restarted.stop();
+
+        final List<Path> files = files();
+        assertThat(files).hasSize(1);
+        assertThat(files.get(0).getFileName().toString()).matches("app\\.json-\\d{8}T\\d{6}\\.gz");
+    }
+
+    @Test
+    void maxHistory() throws IOException {
+        final GzipRollingFileAppender<ILoggingEvent> appender = newAppender(a -> {
+            a.setMaxFileSize(new FileSize(1024));
+            a.setMaxHistory(3);
+        });
+        appendEvents(appender);
+        appender.stop();
+
+        assertThat(rolledFiles()).hasSize(3);
+    }
+
+    @Test
+    void totalSizeCap() throws IOException {
+        final long totalSizeCap = 16 * 1024;
+        final GzipRollingFileAppender<ILoggingEvent> appender = newAppender(a -> {
+            a.setMaxFileSize(new FileSize(1024));
+            a.setTotalSizeCap(new FileSize(totalSizeCap));
+        });
+        appendEvents(appender);
+        appendEvents(appender);
+        appender.stop();
+
+        final List<Path> rolledFiles = rolledFiles();
+        assertThat(rolledFiles).isNotEmpty();
+
+        long totalSize = 0;
+        for (final Path file : rolledFiles) {
+            totalSize += Files.size(file);
+        }
+        assertThat(totalSize).isLessThanOrEqualTo(totalSizeCap);
+    }
+
+    private GzipRollingFileAppender<ILoggingEvent> newAppender() {
+        return newAppender(a -> { });
+    }
+
+    private GzipRollingFileAppender<ILoggingEvent> newAppender(
+        final Consumer<GzipRollingFileAppender<ILoggingEvent>> customizer) {
+        final AwsJsonLogEncoder encoder = new AwsJsonLogEncoder();
+        encoder.setContext(lc);
+        encoder.start();
+
+        final GzipRollingFileAppender<ILoggingEvent> appender = new GzipRollingFileAppender<>();
+        appender.setContext(lc);
+        appender.setName("test");
+        appender.setEncoder(encoder);
+        appender.setFile(activeFile().toString());
+        appender.setBlockSize(new FileSize(4096));
+        appender.setMaxFileSize(new FileSize(8192));
+        customizer.accept(appender);
+        appender.start();
+        return appender;
+    }
+
+    private Path activeFile() {
+        return tempDir.resolve("app.json.gz");
+    }
+
+    private void appendEvents(final GzipRollingFileAppender<ILoggingEvent> appender) {
+        final Logger logger = lc.getLogger(LOGGER_NAME);
+        for (int i = 0; i < EVENTS; i++) {
+            appender.doAppend(new LoggingEvent(LOGGER_NAME, logger, Level.INFO, "message {}", null,
+                new Object[]{i}));
+        }
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private List<Path> rolledFiles() throws IOException {
+        final List<Path> rolledFiles = new ArrayList<>();
+        for (final Path file : files()) {
+            if (!file.equals(activeFile())) {
+                rolledFiles.add(file);
+            }
+        }
+        return rolledFiles;
+    }
+
+    private static List<String> readLines(final Path file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+}
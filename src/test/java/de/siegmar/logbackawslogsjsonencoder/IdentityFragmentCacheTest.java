@@ -0,0 +1,55 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class IdentityFragmentCacheTest {
+
+    private final IdentityFragmentCache<List<String>> cache = new IdentityFragmentCache<>(16);
+
+    @Test
+    void cachedByIdentity() {
+        final List<String> key = new ArrayList<>(List.of("a"));
+        assertThat(cache.get(key, Object::toString)).isEqualTo("[a]");
+
+        key.add("b");
+        assertThat(cache.get(key, Object::toString)).isEqualTo("[a]");
+    }
+
+    @Test
+    void equalKeysAreNotShared() {
+        assertThat(cache.get(new ArrayList<>(List.of("a")), k -> "first")).isEqualTo("first");
+        assertThat(cache.get(new ArrayList<>(List.of("a")), k -> "second")).isEqualTo("second");
+    }
+
+    @Test
+    void sizeMustBePowerOfTwo() {
+        assertThatThrownBy(() -> new IdentityFragmentCache<>(10))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.util.FileSize;
+
+class MappedSpoolAppenderTest {
+
+    private static final String LOGGER_NAME = MappedSpoolAppenderTest.class.getCanonicalName();
+
+    private final LoggerContext lc = new LoggerContext();
+    private final AwsJsonLogEncoder encoder = new AwsJsonLogEncoder();
+
+    @TempDir
+    Path tempDir;
+
+    MappedSpoolAppenderTest() {
+        encoder.setContext(lc);
+        encoder.start();
+    }
+
+    @Test
+    void forward() throws IOException {
+        final MappedSpoolAppender<ILoggingEvent> appender = newAppender();
+        for (int i = 0; i < 1000; i++) {
+            appender.doAppend(event("message " + i));
+        }
+        appender.stop();
+
+        final List<String> lines = Files.readAllLines(outputFile(), StandardCharsets.UTF_8);
+        assertThat(lines).hasSize(1000);
+        assertThat(lines.get(999)).contains("\"message\":\"message 999\"");
+        assertThat(appender.getDroppedEvents()).isZero();
+    }
+
+    @Test
+    void replay() throws IOException {
+        // records that have been spooled, but not forwarded before the JVM was killed
+        spool(1024 * 1024, "spooled 1", "spooled 2");
+
+        final MappedSpoolAppender<ILoggingEvent> appender = newAppender();
+        appender.doAppend(event("new"));
+        appender.stop();
+
+        assertThat(Files.readAllLines(outputFile(), StandardCharsets.UTF_8))
+            .hasSize(3)
+            .satisfies(lines -> {
+                assertThat(lines.get(0)).contains("\"message\":\"spooled 1\"");
+                assertThat(lines.get(1)).contains("\"message\":\"spooled 2\"");
+                assertThat(lines.get(2)).contains("\"message\":\"new\"");
+            });
+
+        // nothing to replay after a clean stop
+        try (MappedRingBuffer ringBuffer = MappedRingBuffer.open(spoolFile(), 1024 * 1024)) {
+            assertThat(ringBuffer.replay((buf, length) -> {
+            }, () -> {
+            })).isZero();
+        }
+    }
+
+    @Test
+    void replaySkipsUnpublishedRecord() throws IOException {
+        spool(1024 * 1024, "spooled 1", "unpublished", "spooled 2");
+
+        // the JVM was killed after the second record had been reserved, but before it was published
+        final int firstRecordSize = (8 + encoder.encode(event("spooled 1")).length + 7) & -8;
+        try (FileChannel channel = FileChannel.open(spoolFile(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES), 4096 + firstRecordSize);
+        }
+
+        final MappedSpoolAppender<ILoggingEvent> appender = newAppender();
+        appender.stop();
+
+        assertThat(Files.readAllLines(outputFile(), StandardCharsets.UTF_8))
+            .hasSize(2)
+            .satisfies(lines -> {
+                assertThat(lines.get(0)).contains("\"message\":\"spooled 1\"");
+                assertThat(lines.get(1)).contains("\"message\":\"spooled 2\"");
+            });
+    }
+
+    @Test
+    void lockedSpoolFile() {
+        final MappedSpoolAppender<ILoggingEvent> appender = newAppender();
+        assertThat(newAppender().isStarted()).isFalse();
+        appender.stop();
+
+        // the lock is released on stop
+        final MappedSpoolAppender<ILoggingEvent> restarted = newAppender();
+        assertThat(restarted.isStarted()).isTrue();
+        restarted.stop();
+    }
+
+    @Test
+    void replayWithChangedCapacity() throws IOException {
+        spool(1024 * 1024, "spooled");
+
+        final MappedSpoolAppender<ILoggingEvent> appender = newAppender(new FileSize(2 * 1024 * 1024));
+        appender.stop();
+
+        assertThat(Files.readAllLines(outputFile(), StandardCharsets.UTF_8))
+            .hasSize(1)
+            .allSatisfy(line -> assertThat(line).contains("\"message\":\"spooled\""));
+        try (MappedRingBuffer ringBuffer = MappedRingBuffer.open(spoolFile(), 2 * 1024 * 1024)) {
+            assertThat(ringBuffer.getCapacity()).isEqualTo(1024 * 1024);
+        }
+    }
+
+    @Test
+    void keepRecordsUntilFlushed() throws IOException {
+        spool(1024 * 1024, "spooled");
+
+        final MappedRingBuffer ringBuffer = MappedRingBuffer.open(spoolFile(), 1024 * 1024);
+        final List<String> consumed = new ArrayList<>();
+        final MappedRingBuffer.RecordConsumer consumer = (buf, length) ->
+            consumed.add(new String(buf, 0, length, StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> ringBuffer.replay(consumer, () -> {
+            throw new IOException("flush failed");
+        })).isInstanceOf(IOException.class);
+        ringBuffer.close();
+
+        // not flushed - still pending after a crash
+        try (MappedRingBuffer reopened = MappedRingBuffer.open(spoolFile(), 1024 * 1024)) {
+            assertThat(reopened.replay(consumer, () -> {
+            })).isEqualTo(1);
+        }
+        assertThat(consumed).hasSize(2).allSatisfy(line -> assertThat(line).contains("\"message\":\"spooled\""));
+    }
+
+    @Test
+    void full() {
+        final MappedSpoolAppender<ILoggingEvent> appender = newAppender(new FileSize(1024));
+        appender.doAppend(event("x".repeat(2000)));
+        appender.stop();
+
+        assertThat(appender.getDroppedEvents()).isEqualTo(1);
+    }
+
+    /**
+     * Spools records that have not been forwarded before the JVM was killed (which releases the lock).
+     */
+    private void spool(final int capacity, final String... messages) throws IOException {
+        try (MappedRingBuffer ringBuffer = MappedRingBuffer.open(spoolFile(), capacity)) {
+            ringBuffer.replay((buf, length) -> {
+            }, () -> {
+            });
+            for (final String message : messages) {
+                ringBuffer.offer(encoder.encode(event(message)));
+            }
+        }
+    }
+
+    private MappedSpoolAppender<ILoggingEvent> newAppender() {
+        return newAppender(new FileSize(1024 * 1024));
+    }
+
+    private MappedSpoolAppender<ILoggingEvent> newAppender(final FileSize capacity) {
+        final MappedSpoolAppender<ILoggingEvent> appender = new MappedSpoolAppender<>();
+        appender.setContext(lc);
+        appender.setName("test");
+        appender.setEncoder(encoder);
+        appender.setFile(spoolFile().toString());
+        appender.setOutput(outputFile().toString());
+        appender.setCapacity(capacity);
+        appender.start();
+        return appender;
+    }
+
+    private Path spoolFile() {
+        return tempDir.resolve("app.spool");
+    }
+
+    private Path outputFile() {
+        return tempDir.resolve("app.log");
+    }
+
+    private ILoggingEvent event(final String message) {
+        final Logger logger = lc.getLogger(LOGGER_NAME);
+        return new LoggingEvent(LOGGER_NAME, logger, Level.INFO, message, null, null);
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+
+class MessageTemplateCacheTest {
+
+    // a single slot, so all messages compete for it
+    private final MessageTemplateCache cache = new MessageTemplateCache(1);
+
+    @Test
+    void cached() {
+        final MessageTemplate template = cache.get("message {}");
+        assertThat(cache.get("message {}")).isSameAs(template);
+    }
+
+    @Test
+    void oneOffMessagesAreReplaced() {
+        cache.get("first");
+        final MessageTemplate second = cache.get("second");
+        assertThat(cache.get("second")).isSameAs(second);
+    }
+
+    @Test
+    void frequentTemplateSurvivesOneOffMessage() {
+        final MessageTemplate template = cache.get("message {}");
+        assertThat(cache.get("message {}")).isSameAs(template);
+
+        cache.get("one-off");
+        assertThat(cache.get("message {}")).isSameAs(template);
+    }
+
+    @Test
+    void sizeMustBePowerOfTwo() {
+        assertThatThrownBy(() -> new MessageTemplateCache(10))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.helpers.MessageFormatter;
+
+class MessageTemplateTest {
+
+    static Stream<Arguments> messages() {
+        return Stream.of(
+            Arguments.of("plain", null),
+            Arguments.of("plain", new Object[]{}),
+            Arguments.of("a {} b {}", new Object[]{1, "two"}),
+            Arguments.of("a {} b {}", new Object[]{1}),
+            Arguments.of("a {} b", new Object[]{1, 2, 3}),
+            Arguments.of("escaped \\{} {}", new Object[]{1}),
+            Arguments.of("escaped \\{} {}", null),
+            Arguments.of("double escaped \\\\{} {}", new Object[]{1, 2}),
+            Arguments.of("quote \" {}", new Object[]{"\"\n"}),
+            Arguments.of("throwable {}", new Object[]{new IllegalStateException("x")}),
+            Arguments.of("throwable {} {}", new Object[]{"a", new IllegalStateException("x")}),
+            Arguments.of("array {} {}", new Object[]{new int[]{1, 2}, null})
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("messages")
+    void sameAsMessageFormatter(final String message, final Object[] args) {
+        final String formatted = args == null ? message : MessageFormatter.arrayFormat(message, args).getMessage();
+        final StringBuilder expected = new StringBuilder();
+        SimpleJsonEncoder.escapeString(formatted, expected);
+
+        final StringBuilder actual = new StringBuilder();
+        MessageTemplate.parse(message).appendFormatted(actual, args);
+
+        assertThat(actual).hasToString(expected.toString());
+    }
+
+}
@@ -21,6 +21,13 @@ package de.siegmar.logbackawslogsjsonencoder;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
 import org.junit.jupiter.api.Test;
 
 @SuppressWarnings({"PMD.AvoidStringBufferField", "PMD.AvoidDuplicateLiterals"})
@@ -101,6 +108,66 @@ class SimpleJsonEncoderTest {
         assertThat(produce()).isEqualTo("{\"\\u0002\":\"\\u0007\\u0019\"}");
     }
 
+    @Test
+    void bool() {
+        enc.append("aaa", true);
+        assertThat(produce()).isEqualTo("{\"aaa\":true}");
+    }
+
+    @Test
+    void notANumber() {
+        enc.append("aaa", Double.NaN);
+        assertThat(produce()).isEqualTo("{\"aaa\":\"NaN\"}");
+    }
+
+    @Test
+    void floatNumber() {
+        enc.append("aaa", 0.1f);
+        enc.append("bbb", Float.POSITIVE_INFINITY);
+        assertThat(produce()).isEqualTo("{\"aaa\":0.1,\"bbb\":\"Infinity\"}");
+    }
+
+    @Test
+    void uuid() {
+        final UUID uuid = UUID.randomUUID();
+        enc.append("aaa", uuid);
+        assertThat(produce()).isEqualTo("{\"aaa\":\"" + uuid + "\"}");
+    }
+
+    @Test
+    void instant() {
+        enc.append("aaa", Instant.ofEpochMilli(1_698_595_093_642L));
+        assertThat(produce()).isEqualTo("{\"aaa\":\"2023-10-29T15:58:13.642Z\"}");
+    }
+
+    @Test
+    void instantNanos() {
+        enc.append("aaa", Instant.ofEpochSecond(1_698_595_093L, 642_725_001));
+        enc.append("bbb", Instant.ofEpochSecond(1_698_595_093L));
+        assertThat(produce())
+            .isEqualTo("{\"aaa\":\"2023-10-29T15:58:13.642725001Z\",\"bbb\":\"2023-10-29T15:58:13Z\"}");
+    }
+
+    @Test
+    void iterableThatIsNoCollection() {
+        // Path is an Iterable of its name elements
+        enc.append("aaa", Path.of("foo"));
+        assertThat(produce()).isEqualTo("{\"aaa\":\"foo\"}");
+    }
+
+    @Test
+    void enumToString() {
+        enc.append("aaa", Color.RED);
+        assertThat(produce()).isEqualTo("{\"aaa\":\"red\"}");
+    }
+
+    @Test
+    void collections() {
+        enc.append("aaa", List.of(1, "b", Map.of("c", List.of())));
+        enc.append("ddd", new int[]{1, 2});
+        assertThat(produce()).isEqualTo("{\"aaa\":[1,\"b\",{\"c\":[]}],\"ddd\":[1,2]}");
+    }
+
     @Test
     void multipleFields() {
         enc.append("bbb", "ccc");
@@ -109,4 +176,15 @@ class SimpleJsonEncoderTest {
         assertThat(produce()).isEqualTo("{\"bbb\":\"ccc\",\"ddd\":123}");
     }
 
+    private enum Color {
+
+        RED;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+    }
+
 }
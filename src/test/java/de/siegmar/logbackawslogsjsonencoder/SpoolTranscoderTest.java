@@ -0,0 +1,195 @@
+/*
+ * Logback awslogs JSON encoder.
+ * Copyright (C) 2023 Oliver Siegmar
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package de.siegmar.logbackawslogsjsonencoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.MarkerFactory;
+import org.slf4j.event.KeyValuePair;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+@SuppressWarnings("checkstyle:avoidescapedunicodecharacters")
+class SpoolTranscoderTest {
+
+    private static final String LOGGER_NAME = SpoolTranscoderTest.class.getCanonicalName();
+
+    private final LoggerContext lc = new LoggerContext();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTrip() throws IOException {
+        final AwsJsonLogEncoder jsonEncoder = newEncoder(false);
+        final AwsJsonLogEncoder spoolEncoder = newEncoder(true);
+        final List<ILoggingEvent> events = events();
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final ByteArrayOutputStream spool = new ByteArrayOutputStream();
+        spool.writeBytes(spoolEncoder.headerBytes());
+        for (final ILoggingEvent event : events) {
+            expected.writeBytes(jsonEncoder.encode(event));
+            spool.writeBytes(spoolEncoder.encode(event));
+        }
+
+        // second segment (e.g. after a file roll) with a new dictionary
+        spool.writeBytes(spoolEncoder.headerBytes());
+        spoolEncoder.encodeBatch(events).writeTo(spool);
+        expected.writeBytes(jsonEncoder.encodeBatch(events).toByteArray());
+
+        assertThat(spool.size()).isLessThan(expected.size());
+        assertThat(transcode(spool.toByteArray())).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    void truncatedRecord() throws IOException {
+        final AwsJsonLogEncoder spoolEncoder = newEncoder(true);
+        final AwsJsonLogEncoder jsonEncoder = newEncoder(false);
+        final ILoggingEvent event = events().get(0);
+
+        final ByteArrayOutputStream spool = new ByteArrayOutputStream();
+        spool.writeBytes(spoolEncoder.headerBytes());
+        spool.writeBytes(spoolEncoder.encode(event));
+        final byte[] record = spoolEncoder.encode(event);
+        spool.write(record, 0, record.length / 2);
+
+        final Path file = Files.write(tempDir.resolve("truncated.spool"), spool.toByteArray());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThat(SpoolTranscoder.transcode(file, out)).isEqualTo(1);
+        assertThat(out.toByteArray()).isEqualTo(jsonEncoder.encode(event));
+    }
+
+    @Test
+    void recordOfPreviousGeneration() throws IOException {
+        final AwsJsonLogEncoder jsonEncoder = newEncoder(false);
+        final AwsJsonLogEncoder spoolEncoder = newEncoder(true);
+        final List<ILoggingEvent> events = events();
+
+        final byte[] header = spoolEncoder.headerBytes();
+        final byte[] first = spoolEncoder.encode(events.get(0));
+        final byte[] late = spoolEncoder.encode(events.get(1));
+
+        // another thread rolls the file while the record encoded with the previous dictionary is in flight
+        final byte[] nextHeader = spoolEncoder.headerBytes();
+        final byte[] next = spoolEncoder.encode(events.get(2));
+
+        final ByteArrayOutputStream spool = new ByteArrayOutputStream();
+        spool.writeBytes(header);
+        spool.writeBytes(first);
+        spool.writeBytes(nextHeader);
+        spool.writeBytes(late);
+        spool.writeBytes(next);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (final ILoggingEvent event : events.subList(0, 3)) {
+            expected.writeBytes(jsonEncoder.encode(event));
+        }
+
+        assertThat(transcode(spool.toByteArray())).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    void truncatedLengthPrefix() throws IOException {
+        final AwsJsonLogEncoder spoolEncoder = newEncoder(true);
+        final AwsJsonLogEncoder jsonEncoder = newEncoder(false);
+        final ILoggingEvent event = events().get(2);
+
+        final ByteArrayOutputStream spool = new ByteArrayOutputStream();
+        spool.writeBytes(spoolEncoder.headerBytes());
+        spool.writeBytes(spoolEncoder.encode(event));
+        final byte[] record = spoolEncoder.encode(event);
+
+        // a record of more than 127 bytes has a multi-byte length prefix
+        assertThat(record.length).isGreaterThan(128);
+        spool.write(record, 0, 1);
+
+        final Path file = Files.write(tempDir.resolve("truncated.spool"), spool.toByteArray());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThat(SpoolTranscoder.transcode(file, out)).isEqualTo(1);
+        assertThat(out.toByteArray()).isEqualTo(jsonEncoder.encode(event));
+    }
+
+    @Test
+    void truncatedHeader() throws IOException {
+        final AwsJsonLogEncoder spoolEncoder = newEncoder(true);
+        final AwsJsonLogEncoder jsonEncoder = newEncoder(false);
+        final ILoggingEvent event = events().get(0);
+
+        final ByteArrayOutputStream spool = new ByteArrayOutputStream();
+        spool.writeBytes(spoolEncoder.headerBytes());
+        spool.writeBytes(spoolEncoder.encode(event));
+        final byte[] header = spoolEncoder.headerBytes();
+        spool.write(header, 0, header.length - 1);
+
+        assertThat(transcode(spool.toByteArray())).isEqualTo(jsonEncoder.encode(event));
+    }
+
+    private AwsJsonLogEncoder newEncoder(final boolean binarySpool) {
+        final AwsJsonLogEncoder encoder = new AwsJsonLogEncoder();
+        encoder.setContext(lc);
+        encoder.setIncludeRawMessage(true);
+        encoder.setIncludeRootCause(true);
+        encoder.setIncludeSequenceNumber(true);
+        encoder.addStaticField("app:demo");
+        encoder.setBinarySpool(binarySpool);
+        encoder.start();
+        return encoder;
+    }
+
+    private List<ILoggingEvent> events() {
+        final Logger logger = lc.getLogger(LOGGER_NAME);
+        final List<ILoggingEvent> events = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final Exception exception = i == 2 ? new IllegalStateException("boom\n") : null;
+            final LoggingEvent event = new LoggingEvent(LOGGER_NAME, logger, i % 2 == 0 ? Level.INFO : Level.WARN,
+                "message {} \u00e4 \"quoted\"", exception, new Object[]{i});
+            event.setMDCPropertyMap(Map.of("requestId", "r" + i));
+            event.addMarker(MarkerFactory.getMarker("AUDIT"));
+            event.setKeyValuePairs(List.of(new KeyValuePair("list", List.of(1, "two"))));
+            events.add(event);
+        }
+        return events;
+    }
+
+    private byte[] transcode(final byte[] spool) throws IOException {
+        final Path file = Files.write(tempDir.resolve("test.spool"), spool);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(SpoolTranscoder.transcode(file, out)).isZero();
+        return out.toByteArray();
+    }
+
+}